@@ -78,6 +78,18 @@ public abstract class Entity {
 			body = b;
 	}
 
+	/**
+	 * Replaces the body even if this entity already has one.<br>
+	 * This is for the physics layer when it moves the entity to another world.<br>
+	 * You shouldn't need to call this ever.
+	 * 
+	 * @param b
+	 *            The new body. The old one is not destroyed.
+	 */
+	public void replaceBody(Body b) {
+		body = b;
+	}
+
 	/**
 	 * Copies all attributes from parameter entity.
 	 * @param cpy The entity to be copied
@@ -146,9 +146,7 @@ public class EntityContainer<T extends Entity> {
 
 		// If found remove
 		if (e != null) {
-			// Event
-			removingEntityEvent(e);
-			// Kill the ent from this manager
+			// Kill the ent from this manager (fires the event)
 			removeEntity(e);
 			// Trim to memory optimization - deprecated due to map optimization
 			// entities.trimToSize();
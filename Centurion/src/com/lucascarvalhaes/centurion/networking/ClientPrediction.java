@@ -0,0 +1,162 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import com.badlogic.gdx.utils.TimeUtils;
+import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * Client side prediction of the entity the player controls.<br>
+ * Inputs are applied to the local entity as soon as they are sent, so the player doesn't wait<br>
+ * a round trip to see it move. Inputs are kept until a snapshot says the server got them.<br>
+ * Each snapshot with the entity puts it back at the server state and the inputs the server<br>
+ * didn't get yet are played again over it, from the time of the snapshot until now.<br>
+ * How an input changes the entity and how the entity moves on its own is game code, see {@link Predictor}.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class ClientPrediction {
+
+	/**
+	 * The game code the prediction runs. Must do the same as the server.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public interface Predictor {
+		/**
+		 * Applies an input to the entity, like the server does when it gets it.
+		 */
+		public void apply(NWEntity entity, ControlShip input);
+
+		/**
+		 * Moves the entity on its own for some time, with its own update code.<br>
+		 * <b>Must not step the physics world</b>, the other entities would move too.
+		 *
+		 * @param seconds
+		 *            The time to simulate
+		 */
+		public void simulate(NWEntity entity, float seconds);
+	}
+
+	/**
+	 * An input not acknowledged yet, with the local time it was sent
+	 */
+	private static class Pending {
+		final ControlShip	input;
+		final long			time;
+
+		Pending(ControlShip input, long time) {
+			this.input = input;
+			this.time = time;
+		}
+	}
+
+	private final Predictor				predictor;
+	private final ArrayDeque<Pending>	pending		= new ArrayDeque<>();
+	private int							sequence	= 0;
+	private String						entityID;
+	/**
+	 * Server time - local time, from the snapshot that took the least to arrive
+	 */
+	private long						clockOffset;
+	private boolean						synced		= false;
+
+	public ClientPrediction(Predictor predictor) {
+		this.predictor = predictor;
+	}
+
+	/**
+	 * Numbers an input, keeps it and applies it to the local entity.
+	 *
+	 * @param input
+	 *            The input about to be sent
+	 * @param entity
+	 *            The local entity it controls, or null if it isn't here yet
+	 */
+	public synchronized void inputSent(ControlShip input, NWEntity entity) {
+		input.sequence = ++sequence;
+		entityID = NWEntity.networkID(input.entityID, input.ownerID);
+		pending.addLast(new Pending(input, TimeUtils.millis()));
+		if (entity != null)
+			predictor.apply(entity, input);
+	}
+
+	/**
+	 * Puts the entity at the state of a snapshot and plays again the inputs the server didn't get yet.
+	 *
+	 * @param entity
+	 *            The predicted entity
+	 * @param message
+	 *            Its full update message from the snapshot
+	 * @param lastInput
+	 *            The last input the server got, see {@link Messaging.Snapshot#lastInput}
+	 * @param stamp
+	 *            The server time of the snapshot
+	 */
+	public synchronized void reconcile(NWEntity entity, HashMap<String, Object> message, int lastInput, long stamp) {
+		// Acknowledged, the server state has them
+		Iterator<Pending> it = pending.iterator();
+		while (it.hasNext() && it.next().input.sequence <= lastInput)
+			it.remove();
+
+		// Back to the server state
+		entity.nwReceive(message);
+
+		// Play again what the server didn't get, from when the snapshot was made
+		long now = TimeUtils.millis();
+		long time = Math.min(stamp - clockOffset, now);
+		for (Pending p : pending) {
+			long at = Math.max(p.time, time);
+			if (at > time)
+				predictor.simulate(entity, (at - time) / 1000f);
+			predictor.apply(entity, p.input);
+			time = at;
+		}
+		if (now > time)
+			predictor.simulate(entity, (now - time) / 1000f);
+	}
+
+	/**
+	 * Tells the time of a snapshot that arrived. Keeps the server clock estimate.
+	 *
+	 * @param stamp
+	 *            The server time of the snapshot
+	 */
+	public synchronized void received(long stamp) {
+		long offset = stamp - TimeUtils.millis();
+		// The fastest snapshot is the closest to the real offset
+		if (!synced || offset > clockOffset)
+			clockOffset = offset;
+		else
+			clockOffset--;
+		synced = true;
+	}
+
+	/**
+	 * @return true if this entity is predicted, not moved by the snapshots.
+	 */
+	public synchronized boolean isPredicted(String entityID) {
+		return entityID != null && entityID.equals(this.entityID);
+	}
+
+	/**
+	 * @return How many inputs the server didn't get yet.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Forgets the inputs, like after the entity died or the connection changed.
+	 */
+	public synchronized void clear() {
+		pending.clear();
+		entityID = null;
+		synced = false;
+	}
+}
@@ -0,0 +1,144 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.badlogic.gdx.math.Vector2;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * What the server networking knows about the entities alive: their create messages, classes and owners.<br>
+ * Built from the create and remove messages of the zones, so it never touches the entities themselves.<br>
+ * <b>Used only from the server networking tick.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class EntityIndex {
+
+	/**
+	 * The create messages of the entities alive - EntityID -> CreateMessage
+	 */
+	private final HashMap<String, HashMap<String, Object>>	creates	= new HashMap<>();
+	/**
+	 * The class names of the entities alive - EntityID -> ClassName
+	 */
+	private final HashMap<String, String>					classes	= new HashMap<>();
+	/**
+	 * The entities of each player - PlayerID -> EntityIDs
+	 */
+	private final HashMap<String, HashSet<String>>			owned	= new HashMap<>();
+
+	/**
+	 * Stores the create message of a new entity.
+	 */
+	public void entityCreated(HashMap<String, Object> createMessage, String className) {
+		// Updates and removals go by the networked ID
+		String id = NWEntity.networkID(createMessage);
+		creates.put(id, createMessage);
+		classes.put(id, className);
+		String owner = (String) createMessage.get("nw_ownerID");
+		HashSet<String> ids = owned.get(owner);
+		if (ids == null) {
+			ids = new HashSet<>();
+			owned.put(owner, ids);
+		}
+		ids.add(id);
+	}
+
+	/**
+	 * Forgets a removed entity.
+	 */
+	public void entityRemoved(String id) {
+		HashMap<String, Object> create = creates.remove(id);
+		classes.remove(id);
+		if (create == null)
+			return;
+		String owner = (String) create.get("nw_ownerID");
+		HashSet<String> ids = owned.get(owner);
+		if (ids != null) {
+			ids.remove(id);
+			if (ids.isEmpty())
+				owned.remove(owner);
+		}
+	}
+
+	/**
+	 * @return true if the entity is alive.
+	 */
+	public boolean contains(String id) {
+		return creates.containsKey(id);
+	}
+
+	/**
+	 * @return The IDs of the entities alive.
+	 */
+	public Set<String> ids() {
+		return creates.keySet();
+	}
+
+	/**
+	 * @return The class name of an entity alive, or null.
+	 */
+	public String classOf(String id) {
+		return classes.get(id);
+	}
+
+	/**
+	 * @return The entities of a player. Empty if he has none.
+	 */
+	public Set<String> ownedBy(String playerID) {
+		HashSet<String> ids = owned.get(playerID);
+		return ids == null ? Collections.<String> emptySet() : ids;
+	}
+
+	/**
+	 * Makes a create message for an entity with its latest state.
+	 *
+	 * @param worldState
+	 *            EntityID -> Full update message
+	 * @return The message or null if the entity is gone.
+	 */
+	public HashMap<String, Object> createMessage(String id, HashMap<String, HashMap<String, Object>> worldState) {
+		HashMap<String, Object> create = creates.get(id);
+		if (create == null)
+			return null;
+		HashMap<String, Object> msg = new HashMap<>(create);
+		// The update message has the proprieties that changed since the creation
+		HashMap<String, Object> latest = worldState.get(id);
+		if (latest != null)
+			msg.putAll(latest);
+		return msg;
+	}
+
+	/**
+	 * @param worldState
+	 *            EntityID -> Full update message
+	 * @return The latest position of an entity, or null if it has none.
+	 */
+	public Vector2 positionOf(String id, HashMap<String, HashMap<String, Object>> worldState) {
+		HashMap<String, Object> latest = worldState.get(id);
+		if (latest != null && latest.get("nw_position") != null)
+			return (Vector2) latest.get("nw_position");
+		HashMap<String, Object> create = creates.get(id);
+		return create == null ? null : (Vector2) create.get("nw_position");
+	}
+
+	/**
+	 * @param worldState
+	 *            EntityID -> Full update message
+	 * @return The positions of the entities of a player.
+	 */
+	public ArrayList<Vector2> positionsOf(String playerID, HashMap<String, HashMap<String, Object>> worldState) {
+		ArrayList<Vector2> positions = new ArrayList<>();
+		for (String id : ownedBy(playerID)) {
+			Vector2 pos = positionOf(id, worldState);
+			if (pos != null)
+				positions.add(pos);
+		}
+		return positions;
+	}
+}
@@ -5,20 +5,25 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
+import com.badlogic.gdx.math.Vector2;
 import com.esotericsoftware.kryonet.Client;
 import com.esotericsoftware.kryonet.Connection;
 import com.esotericsoftware.kryonet.Listener;
 import com.lucascarvalhaes.centurion.model.Centurion;
 import com.lucascarvalhaes.centurion.model.ManagerComponentAdapter;
 import com.lucascarvalhaes.centurion.model.Player;
+import com.lucascarvalhaes.centurion.networking.Messaging.AlreadyLoggedIn;
 import com.lucascarvalhaes.centurion.networking.Messaging.AvaliableID;
 import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
 import com.lucascarvalhaes.centurion.networking.Messaging.EntitiesOnTheServer;
 import com.lucascarvalhaes.centurion.networking.Messaging.Login;
+import com.lucascarvalhaes.centurion.networking.Messaging.LoginRefused;
 import com.lucascarvalhaes.centurion.networking.Messaging.NewEntities;
 import com.lucascarvalhaes.centurion.networking.Messaging.PlayerDropped;
+import com.lucascarvalhaes.centurion.networking.Messaging.Reliable;
 import com.lucascarvalhaes.centurion.networking.Messaging.RemoveEntities;
 import com.lucascarvalhaes.centurion.networking.Messaging.Snapshot;
+import com.lucascarvalhaes.centurion.networking.Messaging.SnapshotAck;
 import com.lucascarvalhaes.centurion.networking.Messaging.SpawnPlayer;
 import com.lucascarvalhaes.centurion.networking.gameModel.NWCreator;
 import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
@@ -30,7 +35,62 @@ public class GameClient {
 
 	private String		IP;
 	private int			TCP_PORT, UDP_PORT;
-	private long		lastSnapshotTime	= 0;
+	private int			lastSnapshot		= -1;
+	/**
+	 * The states rebuilt from the last snapshots, to read the next deltas
+	 */
+	private final SnapshotHistory	snapshots	= new SnapshotHistory();
+	/**
+	 * The state of the last snapshot while its chunks arrive. Null when it is complete.
+	 */
+	private HashMap<String, HashMap<String, Object>>	assembling;
+	/**
+	 * The chunks of the last snapshot that arrived
+	 */
+	private boolean[]								chunksReceived;
+	private int										chunksMissing;
+	/**
+	 * Some entities of the last snapshot had network IDs we didn't know. Not acknowledged, so they come again.
+	 */
+	private boolean									chunksUnresolved;
+	/**
+	 * The network IDs of the entities, learned from their create messages
+	 */
+	private final NetworkIDTable					netIDs	= new NetworkIDTable();
+	/**
+	 * Shows the entities a little in the past, between snapshots. Null moves them as snapshots arrive.
+	 */
+	private volatile SnapshotInterpolator			interpolator;
+	/**
+	 * Moves the entity the player controls as soon as he gives an input. Null waits for the server.
+	 */
+	private volatile ClientPrediction				prediction;
+	/**
+	 * The control state, sent over UDP each tick while it has an entity
+	 */
+	private final InputChannel						inputs	= new InputChannel();
+	/**
+	 * The lifecycle messages that come over UDP. A new one on each connection.
+	 */
+	private ReliableChannel							reliable	= new ReliableChannel();
+	private float									simulatedLoss;
+	/**
+	 * Snapshots waiting for lifecycle messages that didn't arrive yet, in order
+	 */
+	private final ArrayList<Snapshot>				held		= new ArrayList<>();
+	private final ClientListener					listener	= new ClientListener();
+	/**
+	 * Why the server refused the last login. Null if it didn't.
+	 */
+	private volatile String							loginRefusal;
+	/**
+	 * The last page of the world arrived after the login
+	 */
+	private volatile boolean						synced;
+	/**
+	 * Max snapshots waiting for lifecycle messages. The oldest are dropped, the next ones bring their changes.
+	 */
+	public static final int							MAX_HELD	= 64;
 
 	Centurion<NWEntity>	clientManager;
 
@@ -70,10 +130,11 @@ public class GameClient {
 		// Initialize the client
 		client = NetworkFactory.getClient();
 		Messaging.prepare(client);
+		netIDs.install(client.getKryo());
 		client.start();
 
 		// Start the listener
-		client.addListener(new ClientListener());
+		client.addListener(listener);
 
 		// DEBUG
 		// client.addListener(new DebugNetworkListener());
@@ -93,6 +154,98 @@ public class GameClient {
 				}
 			}
 		});
+		// Register a component to send the control state each tick
+		clientman.registerComponent("InputComponent", new ManagerComponentAdapter<NWEntity>() {
+			@Override
+			public void postUpdate(Centurion<NWEntity> manager, float delta) {
+				if (inputs.getEntity() != null && client.isConnected())
+					client.sendUDP(inputs.next());
+			}
+		});
+		// Register a component to move the entities between snapshots
+		clientman.registerComponent("InterpolationComponent", new ManagerComponentAdapter<NWEntity>() {
+			private final Vector2	position	= new Vector2();
+			private long			renderTime;
+
+			@Override
+			public void preUpdate(Centurion<NWEntity> manager, float delta) {
+				SnapshotInterpolator i = interpolator;
+				if (i != null)
+					renderTime = i.getRenderTime();
+			}
+
+			@Override
+			public void updateEntity(NWEntity e, float delta) {
+				SnapshotInterpolator i = interpolator;
+				ClientPrediction p = prediction;
+				// Predicted entities are ahead of the server, not behind
+				if (p != null && p.isPredicted(e.getEntityID()))
+					return;
+				if (i != null && e.hasBody() && i.sample(e.getEntityID(), renderTime, position))
+					e.setPosition(position);
+			}
+		});
+	}
+
+	/**
+	 * Shows the entities a little in the past, moving them smoothly between the snapshots around<br>
+	 * that time, instead of jumping when each snapshot arrives. Lets the server send less snapshots.
+	 * 
+	 * @param delay
+	 *            How far in the past, in milliseconds. 0 turns it off.
+	 *            See {@link SnapshotInterpolator#DEFAULT_DELAY}.
+	 */
+	public void setInterpolation(long delay) {
+		if (delay <= 0)
+			interpolator = null;
+		else if (interpolator == null)
+			interpolator = new SnapshotInterpolator(delay);
+		else
+			interpolator.setDelay(delay);
+	}
+
+	/**
+	 * @return The jitter buffer or null if interpolation is off.
+	 */
+	public SnapshotInterpolator getInterpolator() {
+		return interpolator;
+	}
+
+	/**
+	 * Predicts the entity the player controls: inputs move it right away and each snapshot<br>
+	 * corrects it, playing again the inputs the server didn't get yet.
+	 * 
+	 * @param predictor
+	 *            The game code that applies inputs and moves the entity. Null turns it off.
+	 */
+	public void setPrediction(ClientPrediction.Predictor predictor) {
+		prediction = predictor == null ? null : new ClientPrediction(predictor);
+	}
+
+	/**
+	 * @return The prediction or null if it is off.
+	 */
+	public ClientPrediction getPrediction() {
+		return prediction;
+	}
+
+	/**
+	 * @return true when all the entities on the server at login arrived.
+	 */
+	public boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * Drops the acknowledgements of the reliable UDP messages on purpose, to test over loopback.<br>
+	 * See {@link GameServer#setSimulatedLoss(float)}.
+	 * 
+	 * @param loss
+	 *            From 0 (none) to 1 (all)
+	 */
+	public void setSimulatedLoss(float loss) {
+		simulatedLoss = loss;
+		reliable.setSimulatedLoss(loss);
 	}
 
 	/**
@@ -121,7 +274,7 @@ public class GameClient {
 	 *            The direction to move to
 	 */
 	public void controlShip(String playerID, String shipID, String dir, boolean pressed) {
-		client.sendTCP(ControlShip.make(playerID, shipID, dir, pressed));
+		controlShip(ControlShip.make(playerID, shipID, dir, pressed));
 	}
 
 	/**
@@ -133,21 +286,38 @@ public class GameClient {
 	 *            The direction to move to
 	 */
 	public void controlShip(ControlShip message) {
+		ClientPrediction p = prediction;
+		if (p != null)
+			p.inputSent(message, clientManager.getEntityByID(NWEntity.networkID(message.entityID, message.ownerID)));
 		client.sendTCP(message);
 	}
 
 	/**
-	 * Process the message with all entities on the server after a login.
+	 * The input stream. Set its entity to start sending the control state each tick over UDP,<br>
+	 * then press and release its buttons instead of sending {@link ControlShip} messages.
+	 * 
+	 * @return The input channel of this client.
+	 */
+	public InputChannel getInputChannel() {
+		return inputs;
+	}
+
+	/**
+	 * Process the message with all entities on the server after a login.<br>
+	 * Big worlds come in many of them, nearest first. Snapshots move the entities that arrived meanwhile.
 	 * 
 	 * @param obj
 	 *            The message obj
 	 */
 	public void receiveAllEntitiesOnServer(EntitiesOnTheServer obj) {
+		if (obj.last)
+			synced = true;
 		// Messages that are maps
 		HashMap<HashMap<String, Object>, String> messageData = obj.allEntitiesOnServer;
 
 		NWEntity newEnt = null;
 		for (Entry<HashMap<String, Object>, String> e : messageData.entrySet()) {
+			learnNetID(e.getKey());
 			newEnt = NWCreator.makeInstance(e.getValue(), e.getKey());
 			if (newEnt != null) {
 				entitiesToAdd.add(newEnt);
@@ -168,6 +338,7 @@ public class GameClient {
 		// Add all new entities
 		NWEntity newEnt = null;
 		for (Entry<HashMap<String, Object>, String> e : mapMessages.entrySet()) {
+			learnNetID(e.getKey());
 			newEnt = NWCreator.makeInstance(e.getValue(), e.getKey());
 			if (newEnt != null) {
 				entitiesToAdd.add(newEnt);
@@ -187,23 +358,79 @@ public class GameClient {
 		while (iter.hasNext()) {
 			String e = iter.next();
 			clientManager.removeEntity(e);
+			netIDs.release(e);
+			SnapshotInterpolator i = interpolator;
+			if (i != null)
+				i.remove(e);
 		}
 	}
 
+	/**
+	 * Stores the network ID of a create message.
+	 */
+	private void learnNetID(HashMap<String, Object> createMessage) {
+		Object id = createMessage.get(NetworkIDTable.KEY);
+		if (id instanceof Integer)
+			netIDs.put((Integer) id, NWEntity.networkID(createMessage));
+	}
+
 	/**
 	 * Process a snapshot that comes from the server.<br>
-	 * This snapshot was already accepted as new.
+	 * Chunks are applied as they arrive. The snapshot is kept as a baseline and acknowledged<br>
+	 * only when all its chunks are in. Chunks of older snapshots are dropped.
 	 * 
 	 * @param snap
 	 *            The snap from the server
 	 */
 	private void processSnapshot(Snapshot snap) {
-		// Check if the snap is new
-		if (snap.timestamp <= lastSnapshotTime)
+		// It comes after lifecycle messages we don't have yet, wait for them. Later ones wait behind it.
+		if (snap.reliable > reliable.getDelivered() || !held.isEmpty()) {
+			if (held.size() >= MAX_HELD)
+				held.remove(0);
+			held.add(snap);
+			releaseHeld();
+			return;
+		}
+		applySnapshot(snap);
+	}
+
+	private void applySnapshot(Snapshot snap) {
+		// Check if the snap is new, or a missing chunk of the last one
+		if (snap.sequence < lastSnapshot || snap.chunk < 0 || snap.chunk >= snap.chunks)
+			return;
+		if (snap.sequence == lastSnapshot
+				&& (assembling == null || snap.chunk >= chunksReceived.length || chunksReceived[snap.chunk]))
 			return;
 
-		// Store the new snap time
-		lastSnapshotTime = snap.timestamp;
+		// Find the baseline the deltas were made against
+		HashMap<String, HashMap<String, Object>> baseline = null;
+		if (snap.baseline >= 0) {
+			baseline = snapshots.get(snap.baseline);
+			// We don't have it anymore, the server will fall back to full messages
+			if (baseline == null)
+				return;
+		}
+
+		// Store the new snap sequence. An unfinished older one is dropped.
+		if (snap.sequence > lastSnapshot) {
+			lastSnapshot = snap.sequence;
+			// The state after this snapshot
+			assembling = baseline == null ? new HashMap<String, HashMap<String, Object>>() : new HashMap<>(baseline);
+			chunksReceived = new boolean[snap.chunks];
+			chunksMissing = snap.chunks;
+			chunksUnresolved = false;
+		}
+		if (snap.unresolved > 0)
+			chunksUnresolved = true;
+		chunksReceived[snap.chunk] = true;
+		chunksMissing--;
+		HashMap<String, HashMap<String, Object>> state = assembling;
+		SnapshotInterpolator interpolator = this.interpolator;
+		if (interpolator != null)
+			interpolator.received(snap.timestamp);
+		ClientPrediction prediction = this.prediction;
+		if (prediction != null)
+			prediction.received(snap.timestamp);
 
 		// Messages that are maps
 		HashMap<String, HashMap<String, Object>> mapMessages = snap.updateMessages;
@@ -213,13 +440,58 @@ public class GameClient {
 		while (it.hasNext()) {
 			Entry<String, HashMap<String, Object>> entry = it.next();
 
+			// Rebuild the full message
+			HashMap<String, Object> message = entry.getValue();
+			HashMap<String, Object> old = baseline == null ? null : baseline.get(entry.getKey());
+			if (old != null)
+				message = SnapshotDelta.merge(old, message);
+			state.put(entry.getKey(), message);
+
 			// Find the corresponding entity
 			NWEntity ent = clientManager.getEntityByID(entry.getKey());
 			if (ent != null) {
 				// System.out.println("Got: " + entry.getValue());
-				ent.nwReceive(entry.getValue());
+				if (prediction != null && prediction.isPredicted(entry.getKey())) {
+					prediction.reconcile(ent, message, snap.lastInput, snap.timestamp);
+					continue;
+				}
+				if (interpolator != null && ent.hasBody() && message.get("nw_position") instanceof Vector2) {
+					interpolator.record(snap.timestamp, entry.getKey(), (Vector2) message.get("nw_position"));
+					// The interpolator moves it, keep it where it is
+					message = new HashMap<>(message);
+					message.put("nw_position", new Vector2(ent.getPos()));
+				}
+				ent.nwReceive(message);
 			}
 		}
+
+		// Complete. Keep it as a baseline and tell the server
+		if (chunksMissing == 0 && !chunksUnresolved) {
+			snapshots.store(snap.sequence, state);
+			client.sendUDP(SnapshotAck.make(snap.sequence));
+			assembling = null;
+		}
+	}
+
+	/**
+	 * Takes a lifecycle message from the reliable UDP channel. Acknowledges it and handles it with<br>
+	 * the ones before it, in order. Then the snapshots that waited for them are applied.
+	 */
+	private void processReliable(Reliable packet) {
+		ArrayList<Object> delivered = reliable.receive(packet);
+		if (!reliable.lose())
+			client.sendUDP(reliable.makeAck());
+		for (Object message : delivered)
+			listener.handle(message);
+		releaseHeld();
+	}
+
+	/**
+	 * Applies the held snapshots whose lifecycle messages arrived, in order.
+	 */
+	private void releaseHeld() {
+		while (!held.isEmpty() && held.get(0).reliable <= reliable.getDelivered())
+			applySnapshot(held.remove(0));
 	}
 
 	/**
@@ -267,6 +539,13 @@ public class GameClient {
 		return client.isConnected();
 	}
 
+	/**
+	 * @return Why the server refused the last login, or null if it didn't.
+	 */
+	public String getLoginRefusal() {
+		return loginRefusal;
+	}
+
 	/**
 	 * To use in order to process snapshots
 	 * 
@@ -277,7 +556,28 @@ public class GameClient {
 
 		@Override
 		public void connected(Connection con) {
-
+			// The server starts a new channel too
+			reliable = new ReliableChannel();
+			reliable.setSimulatedLoss(simulatedLoss);
+			held.clear();
+			synced = false;
+			loginRefusal = null;
+			// Sequences and IDs start over on the server
+			lastSnapshot = -1;
+			assembling = null;
+			chunksReceived = null;
+			chunksMissing = 0;
+			chunksUnresolved = false;
+			snapshots.clear();
+			netIDs.clear();
+			// Samples of the last session would be played against the new one
+			SnapshotInterpolator i = interpolator;
+			if (i != null)
+				i.clear();
+			// The inputs of the last session will never be acknowledged
+			ClientPrediction p = prediction;
+			if (p != null)
+				p.clear();
 		}
 
 		@Override
@@ -292,6 +592,14 @@ public class GameClient {
 
 		@Override
 		public void received(Connection con, Object obj) {
+			// Lifecycle messages over UDP
+			if (obj instanceof Reliable)
+				processReliable((Reliable) obj);
+			else
+				handle(obj);
+		}
+
+		void handle(Object obj) {
 			// Receive new entities
 			if (obj instanceof NewEntities)
 				processNewEntities((NewEntities) obj);
@@ -304,7 +612,13 @@ public class GameClient {
 			if (obj instanceof Snapshot)
 				processSnapshot((Snapshot) obj);
 
-			// Receive already loggedin
+			// Receive already loggedin, or another refusal
+			if (obj instanceof AlreadyLoggedIn)
+				loginRefusal = "Already logged";
+			if (obj instanceof LoginRefused)
+				loginRefusal = ((LoginRefused) obj).reason;
+			if (obj instanceof AlreadyLoggedIn || obj instanceof LoginRefused)
+				System.err.println("Login refused: " + loginRefusal);
 
 			// Receive a entity ID for the ship
 			if (obj instanceof AvaliableID)
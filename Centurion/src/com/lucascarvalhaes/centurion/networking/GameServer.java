@@ -1,33 +1,76 @@
 package com.lucascarvalhaes.centurion.networking;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.utils.TimeUtils;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoSerialization;
 import com.esotericsoftware.kryonet.Listener;
 import com.esotericsoftware.kryonet.Server;
 import com.lucascarvalhaes.centurion.model.Centurion;
 import com.lucascarvalhaes.centurion.model.Entity;
-import com.lucascarvalhaes.centurion.model.EntityCointainerListener;
-import com.lucascarvalhaes.centurion.model.ManagerComponentAdapter;
 import com.lucascarvalhaes.centurion.model.Player;
 import com.lucascarvalhaes.centurion.networking.Messaging.AlreadyLoggedIn;
 import com.lucascarvalhaes.centurion.networking.Messaging.AvaliableID;
+import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
+import com.lucascarvalhaes.centurion.networking.Messaging.Encoded;
 import com.lucascarvalhaes.centurion.networking.Messaging.EntitiesOnTheServer;
 import com.lucascarvalhaes.centurion.networking.Messaging.Login;
+import com.lucascarvalhaes.centurion.networking.Messaging.LoginRefused;
 import com.lucascarvalhaes.centurion.networking.Messaging.NewEntities;
 import com.lucascarvalhaes.centurion.networking.Messaging.PlayerDropped;
+import com.lucascarvalhaes.centurion.networking.Messaging.PlayerInput;
+import com.lucascarvalhaes.centurion.networking.Messaging.Reliable;
+import com.lucascarvalhaes.centurion.networking.Messaging.ReliableAck;
 import com.lucascarvalhaes.centurion.networking.Messaging.RemoveEntities;
 import com.lucascarvalhaes.centurion.networking.Messaging.Snapshot;
+import com.lucascarvalhaes.centurion.networking.Messaging.SnapshotAck;
+import com.lucascarvalhaes.centurion.networking.Messaging.SpawnEntity;
+import com.lucascarvalhaes.centurion.networking.Messaging.SpawnPlayer;
 import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
-import com.lucascarvalhaes.centurion.physics.PhysicsManagerComponent;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWFields;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWTypeRegistry;
 import com.lucascarvalhaes.centurion.testing.DebugNetworkListener;
 
 public abstract class GameServer {
 
+	/**
+	 * Default max bytes of the entity messages in a snapshot. Below the UDP buffer of {@link NetworkFactory}.
+	 */
+	public static final int	DEFAULT_SNAPSHOT_BUDGET	= 3072;
+	/**
+	 * Bytes kept free in each snapshot chunk for the headers and the compression
+	 */
+	private static final int	CHUNK_OVERHEAD			= PriorityAccumulator.SNAPSHOT_HEADER + 40;
+	/**
+	 * Default max messages from the players waiting for the next tick
+	 */
+	public static final int		DEFAULT_INBOUND_CAPACITY	= 4096;
+	/**
+	 * Default bytes waiting in the TCP write buffer of a player above which no more join pages are<br>
+	 * sent to him this tick. Half the write buffer of {@link NetworkFactory}.
+	 */
+	public static final int		DEFAULT_JOIN_BUFFER			= 16384;
+	/**
+	 * Reliable UDP messages waiting for acknowledgement above which no more join pages are sent to<br>
+	 * a player this tick. Half what one acknowledgement covers.
+	 */
+	public static final int		JOIN_WINDOW					= ReliableChannel.ACK_BITS / 2;
+
 	/*
 	 * SERVER
 	 */
@@ -36,8 +79,13 @@ public abstract class GameServer {
 	public final int								stepTime;
 	private final Timer								timer;
 
-	// Store the entities for each owner
+	// Store the entities for each owner - the first zone
 	public Centurion<NWEntity>					entities;
+	// The zones of the world, row by row
+	protected final ServerZone[]					zones;
+	protected final Rectangle						worldBounds;
+	protected final int								columns, rows;
+	// Merged view of the zones
 	// Messages for updating entities - Should be EntityID -> UpdateMessage
 	public HashMap<String, HashMap<String, Object>>	updateMessages;
 	// Messages for creating entities - Should be CreateMessage -> EntityClass
@@ -45,54 +93,155 @@ public abstract class GameServer {
 	// Messages for entities that have been removed
 	public ArrayList<String>						removedEntities;
 
-	// Store online players and their connection IDs
-	public HashMap<Integer, Player>					players;
+	// Store online players and their connection IDs. Written on login and drop, read by the network tick.
+	public ConcurrentHashMap<Integer, Player>		players;
+
+	// Full state of every entity - Should be EntityID -> Last update message
+	protected final HashMap<String, HashMap<String, Object>>	worldState			= new HashMap<>();
+	// Create messages, classes and owners of the entities alive
+	protected final EntityIndex									entityIndex			= new EntityIndex();
+	// The network IDs of the entities alive
+	protected final NetworkIDTable								netIDs				= new NetworkIDTable();
+	// The snapshots each logged connection has - ConnectionID -> History
+	protected final ConcurrentHashMap<Integer, SnapshotHistory>	baselines			= new ConcurrentHashMap<>();
+	// The sequence of the last snapshot
+	protected int												snapshotSequence	= 0;
+	// What each player hears about. Null sends everything to everyone.
+	protected InterestManager									interest			= null;
+	// Runs the network stage on its own thread. Null runs it at the end of each tick.
+	protected NetworkPipeline									pipeline			= null;
+
+	// The send priority of the entities for each connection - ConnectionID -> Priorities
+	protected final ConcurrentHashMap<Integer, PriorityAccumulator>	priorities		= new ConcurrentHashMap<>();
+	// Connections whose last snapshot had changes they haven't acknowledged, or left some out for the budget.
+	// They keep getting snapshots when the world goes quiet, until one has nothing to send.
+	protected final Set<Integer>								unsynced			= Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	// Priority weight of each entity class - ClassName -> Weight
+	protected final HashMap<String, Float>						classPriorities		= new HashMap<>();
+	// Max bytes of a snapshot. 0 for no limit.
+	protected int												snapshotBudget		= DEFAULT_SNAPSHOT_BUDGET;
+	// Distance from the player entities at which the priority is halved
+	protected float												priorityDistance	= 512;
+	// Messages from the players waiting for the next tick, and what handles each type
+	protected final InboundQueue										inbound				= new InboundQueue(DEFAULT_INBOUND_CAPACITY);
+	protected final ConcurrentHashMap<Class<?>, MessageHandler<?>>	handlers			= new ConcurrentHashMap<>();
+	private final InboundQueue.Consumer									dispatcher			= new Dispatcher();
+	// The last input sequence got from each player, echoed in his snapshots for the client prediction
+	protected final ConcurrentHashMap<Integer, Integer>			lastInputs			= new ConcurrentHashMap<>();
+	// Serializes broadcasts once for all connections. One for each sending thread.
+	private final ThreadLocal<MessageEncoder>					encoders			= new ThreadLocal<MessageEncoder>() {
+																						@Override
+																						protected MessageEncoder initialValue() {
+																							return new MessageEncoder(netIDs);
+																						}
+																					};
+	// The reliable UDP channel of each logged connection - ConnectionID -> Channel. Empty sends lifecycle on TCP.
+	protected final ConcurrentHashMap<Integer, ReliableChannel>	reliables			= new ConcurrentHashMap<>();
+	protected boolean											reliableUDP			= false;
+	protected float												simulatedLoss		= 0;
+	// Players that logged and wait for the world, and the worlds being sent - ConnectionID -> Stream
+	protected final ConcurrentLinkedQueue<Integer>				joining				= new ConcurrentLinkedQueue<>();
+	protected final HashMap<Integer, JoinStream>				joins				= new HashMap<>();
+	private volatile boolean									streaming			= false;
+	protected int												joinPageSize		= JoinStream.DEFAULT_PAGE_SIZE;
+	protected int												joinBuffer			= DEFAULT_JOIN_BUFFER;
+	// Tick times and traffic
+	protected final ServerMetrics								metrics				= new ServerMetrics();
+	// Used to measure the snapshot messages, set up like the one that sends them
+	private final Kryo											sizingKryo;
+	private final Output										sizingOutput		= new Output(1024, -1);
 
 	public GameServer(int stepTime) {
+		this(stepTime, null, 1, 1);
+	}
+
+	/**
+	 * Makes a server with the world split in a grid of zones. Each zone is simulated on its own<br>
+	 * thread and entities are handed off between zones when they cross the borders.<br>
+	 * With zones, {@link #entities} is only the first zone. Use {@link #spawn(NWEntity, float, float)}<br>
+	 * to add entities and {@link #getZones()} to reach the others.<br>
+	 * Points outside the world bounds belong to the closest border zone.
+	 * 
+	 * @param stepTime
+	 *            Milliseconds between ticks.
+	 * @param worldBounds
+	 *            The area split between the zones. Null for a single zone covering everything.
+	 * @param columns
+	 *            The number of zones in x
+	 * @param rows
+	 *            The number of zones in y
+	 */
+	public GameServer(int stepTime, Rectangle worldBounds, int columns, int rows) {
 		// Make the default server on the default ports
-		server = NetworkFactory.getServer(Messaging.PORT_TCP, Messaging.PORT_UDP);
+		server = NetworkFactory.getServer(Messaging.PORT_TCP, Messaging.PORT_UDP, new MeteredSerialization(metrics));
 		// Prepare the server for messages
 		Messaging.prepare(server);
+		netIDs.install(server.getKryo());
+		sizingKryo = new KryoSerialization().getKryo();
+		Messaging.prepare(sizingKryo);
+		netIDs.install(sizingKryo);
 		// Debug shit
 		server.addListener(new DebugNetworkListener());
 		// Listener for answering client requests
 		server.addListener(new InternalListener());
 		// Store step time
 		this.stepTime = stepTime;
-		// Create the entities hashmap
-		entities = new Centurion<>();
+		// Create the merged view of the zones
 		removedEntities = new ArrayList<>();
 		newEntities = new HashMap<>();
 		updateMessages = new HashMap<>();
 
-		players = new HashMap<>();
+		players = new ConcurrentHashMap<>();
 		// A timer to control server update calls
 		timer = new Timer();
 
-		// Add the physics manager to the entities
-		entities.registerComponent("physicsComponent", new PhysicsManagerComponent());
-		// Lets register all entity registrations
-		entities.addListener(new EntityCointainerListener<NWEntity>() {
+		// Make the zones
+		this.worldBounds = worldBounds;
+		if (worldBounds == null) {
+			columns = 1;
+			rows = 1;
+		}
+		this.columns = columns;
+		this.rows = rows;
+		zones = new ServerZone[columns * rows];
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < columns; col++) {
+				Rectangle bounds = null;
+				if (worldBounds != null && zones.length > 1)
+					bounds = new Rectangle(
+							worldBounds.x + col * worldBounds.width / columns,
+							worldBounds.y + row * worldBounds.height / rows,
+							worldBounds.width / columns,
+							worldBounds.height / rows);
+				zones[row * columns + col] = new ServerZone(this, bounds);
+			}
+		}
+		entities = zones[0].entities;
 
+		// Inputs keep the acknowledgement for the client prediction
+		setHandler(ControlShip.class, new MessageHandler<ControlShip>() {
 			@Override
-			public void onRemoving(NWEntity e) {
-				// Store to send to clients
-				removedEntities.add(e.getEntityID());
+			public void handle(int connectionID, ControlShip message) {
+				inputReceived(connectionID, message);
 			}
-
+		});
+		setHandler(PlayerInput.class, new MessageHandler<PlayerInput>() {
+			@Override
+			public void handle(int connectionID, PlayerInput message) {
+				inputReceived(connectionID, message);
+			}
+		});
+		// Spawns too, so the games never touch the entities from the network thread
+		setHandler(SpawnPlayer.class, new MessageHandler<SpawnPlayer>() {
 			@Override
-			public void onAdding(NWEntity e) {
-				// I can safely use the e.nwCreate() method as key because the string it returns
-				// contains the entity ID which is unique
-				newEntities.put(e.nwCreate(), e.getClass().getName());
+			public void handle(int connectionID, SpawnPlayer message) {
+				spawnRequested(connectionID, message);
 			}
 		});
-		// Lets now register a component to manage networking internals on the manager
-		entities.registerComponent("networkingComponent", new ManagerComponentAdapter<NWEntity>() {
+		setHandler(SpawnEntity.class, new MessageHandler<SpawnEntity>() {
 			@Override
-			public void updateEntity(NWEntity e, float delta) {
-				// Store the updated entities as network messages
-				updateMessages.put(e.getEntityID(), e.nwUpdate());
+			public void handle(int connectionID, SpawnEntity message) {
+				spawnRequested(connectionID, message);
 			}
 		});
 	}
@@ -101,6 +250,41 @@ public abstract class GameServer {
 	 * USER OPERATIONS
 	 */
 
+	/**
+	 * Handles a type of message the players send on the tick thread, at the start of each tick,<br>
+	 * instead of on the network thread like the listeners. Messages of the types with a handler<br>
+	 * wait in a bounded queue; when it is full they are dropped (see {@link #getInboundQueue()}).<br>
+	 * With zones, the tick thread is not the thread of the zones: use {@link #spawn(NWEntity, float, float)}<br>
+	 * or synchronize on the zone.<br>
+	 * {@link ControlShip} and {@link PlayerInput} have handlers that call inputReceived, {@link SpawnPlayer}<br>
+	 * and {@link SpawnEntity} handlers that call spawnRequested. Override them or replace the handlers.
+	 * 
+	 * @param type
+	 *            The exact class of the message
+	 * @param handler
+	 *            The handler, or null to stop handling the type
+	 */
+	public <T> void setHandler(Class<T> type, MessageHandler<? super T> handler) {
+		if (handler == null)
+			handlers.remove(type);
+		else
+			handlers.put(type, handler);
+	}
+
+	/**
+	 * @return The queue of the messages waiting for the next tick.
+	 */
+	public InboundQueue getInboundQueue() {
+		return inbound;
+	}
+
+	/**
+	 * @return What the server measures about itself: tick times and traffic.
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Install a listener to listen for messges of your game model.
 	 * 
@@ -113,6 +297,159 @@ public abstract class GameServer {
 				server.addListener(listener);
 	}
 
+	/**
+	 * Adds an entity to the zone that owns the point, on the start of its next tick.<br>
+	 * Safe to call from any thread.
+	 * 
+	 * @param e
+	 *            The entity, without a body.
+	 * @param x
+	 *            Where to place it
+	 * @param y
+	 *            Where to place it
+	 */
+	public void spawn(NWEntity e, float x, float y) {
+		zoneAt(x, y).spawn(e, x, y);
+	}
+
+	/**
+	 * Finds the zone that owns a point.
+	 * 
+	 * @return The zone. Points outside the world go to the closest border zone.
+	 */
+	public ServerZone zoneAt(float x, float y) {
+		if (zones.length == 1)
+			return zones[0];
+		int col = (int) Math.floor((x - worldBounds.x) / (worldBounds.width / columns));
+		int row = (int) Math.floor((y - worldBounds.y) / (worldBounds.height / rows));
+		// Clamp to the grid
+		col = Math.max(0, Math.min(columns - 1, col));
+		row = Math.max(0, Math.min(rows - 1, row));
+		return zones[row * columns + col];
+	}
+
+	/**
+	 * @return The zones of the world, row by row.
+	 */
+	public ServerZone[] getZones() {
+		return zones;
+	}
+
+	/**
+	 * @return true if each zone is simulated on its own thread.
+	 */
+	public boolean isZoned() {
+		return zones.length > 1;
+	}
+
+	/**
+	 * Turns on area of interest filtering: each player only gets the entities close to his own.<br>
+	 * Entities coming close are created on his client and entities going away are removed.<br>
+	 * <b>Call before starting the server.</b>
+	 * 
+	 * @param radius
+	 *            How close an entity must be to one of the player entities to be sent. 0 to send everything.
+	 */
+	public void setInterestRadius(float radius) {
+		setInterest(radius > 0 ? new InterestManager(radius) : null);
+	}
+
+	/**
+	 * @param interest
+	 *            The area of interest filter or null to send everything to everyone.
+	 * @see #setInterestRadius(float)
+	 */
+	public void setInterest(InterestManager interest) {
+		this.interest = interest;
+	}
+
+	public InterestManager getInterest() {
+		return interest;
+	}
+
+	/**
+	 * Moves the network stage (snapshots, serialization, compression and sending) to its own thread,<br>
+	 * so the tick doesn't wait for it. The state of each tick is handed over to that thread.<br>
+	 * <b>Call before starting the server.</b> With it on, {@link #update(float)} must not touch<br>
+	 * the networking state (world state, interest, priorities): it belongs to the network thread.
+	 * 
+	 * @param pipelined
+	 *            true to send on the network thread
+	 */
+	public void setPipelined(boolean pipelined) {
+		pipeline = pipelined ? new NetworkPipeline(this) : null;
+	}
+
+	/**
+	 * Sends the entity lifecycle messages (creates, removes, dropped players) over UDP with<br>
+	 * {@link ReliableChannel}s instead of TCP. A lost one holds back only the next lifecycle<br>
+	 * messages, not the snapshots, and each snapshot tells the client which of them it needs first.<br>
+	 * <b>Call before starting the server.</b>
+	 * 
+	 * @param reliable
+	 *            true to send them on reliable UDP
+	 */
+	public void setReliableUDP(boolean reliable) {
+		reliableUDP = reliable;
+	}
+
+	/**
+	 * Drops reliable UDP packets on purpose, to test the resending over loopback.
+	 * 
+	 * @param loss
+	 *            From 0 (none) to 1 (all)
+	 */
+	public void setSimulatedLoss(float loss) {
+		simulatedLoss = loss;
+		for (ReliableChannel channel : reliables.values())
+			channel.setSimulatedLoss(loss);
+	}
+
+	/**
+	 * Sets how the world is sent to players that log in. It goes in pages, nearest to the spawn<br>
+	 * first (see {@link #spawnPointOf(Player)}), a few each tick while his TCP write buffer has room.<br>
+	 * With reliable UDP the pages go on it, at most one packet each, {@link #JOIN_WINDOW} in flight.
+	 * 
+	 * @param pageSize
+	 *            Max bytes of the entity messages in a page, before compression. Must fit the object buffer<br>
+	 *            of the clients, see {@link NetworkFactory#CLIENT_OBJECT_BUFFER}.
+	 * @param buffer
+	 *            Bytes waiting in his write buffer above which no more pages go this tick
+	 */
+	public void setJoinPaging(int pageSize, int buffer) {
+		joinPageSize = pageSize;
+		joinBuffer = buffer;
+	}
+
+	/**
+	 * Sets the max size of the snapshots. When the changes don't fit, the most important entities<br>
+	 * are sent and the others wait, getting more important each tick they wait.
+	 * 
+	 * @param bytes
+	 *            The max bytes of a snapshot, before compression. 0 for no limit.
+	 */
+	public void setSnapshotBudget(int bytes) {
+		snapshotBudget = bytes;
+	}
+
+	/**
+	 * @param className
+	 *            The entity class name, as in the create messages.
+	 * @param weight
+	 *            How fast its priority grows. Default is 1.
+	 */
+	public void setClassPriority(String className, float weight) {
+		classPriorities.put(className, weight);
+	}
+
+	/**
+	 * @param distance
+	 *            Distance from the player entities at which the priority of an entity is halved.
+	 */
+	public void setPriorityDistance(float distance) {
+		priorityDistance = distance;
+	}
+
 	/*
 	 * SERVER OPERATIONS
 	 */
@@ -122,11 +459,17 @@ public abstract class GameServer {
 	 */
 	public void close() {
 		timer.cancel();
+		for (ServerZone zone : zones)
+			zone.stop();
+		if (pipeline != null)
+			pipeline.stop();
 		server.close();
 	}
 
 	/**
-	 * Implement to add server update code
+	 * Implement to add server update code.<br>
+	 * With zones this runs on the networking tick while the zones tick on their own threads:<br>
+	 * synchronize on a zone before touching its entities.
 	 * 
 	 * @param dt
 	 */
@@ -139,56 +482,714 @@ public abstract class GameServer {
 	 *            The time sice last update call. This shuould be fixed 15 ms.
 	 */
 	public void innerUpdate(float dt) {
+		long start = System.nanoTime();
+		// Apply what the players sent since the last tick
+		inbound.drain(dispatcher);
+
 		// Update the user game model code
 		update(dt);
 
-		// Update all entities
-		entities.update(dt / 1000f, -1, -1);
+		// Update all entities. Zones on their own threads tick themselves.
+		if (!isZoned())
+			zones[0].tick(dt);
+
+		// Merge the news of all zones
+		for (ServerZone zone : zones)
+			zone.drainMessages(updateMessages, newEntities, removedEntities);
+		if (!newEntities.isEmpty())
+			newEntities = assignNetIDs(newEntities);
 
-		// Send the newest snapshot to all players
-		if (entities.size() > 0) {
-			server.sendToAllUDP(Snapshot.make(TimeUtils.millis(), updateMessages));
+		// The inputs this tick applied, echoed with its snapshots
+		ServerTick tick = new ServerTick(updateMessages, newEntities, removedEntities, new HashMap<>(lastInputs),
+				TimeUtils.millis());
+		if (pipeline != null) {
+			// The network thread owns them now
+			updateMessages = new HashMap<>();
+			newEntities = new HashMap<>();
+			removedEntities = new ArrayList<>();
+			// Empty ticks still resend the lost reliable messages
+			// and keep sending the worlds of the players that logged
+			if (!tick.isEmpty() || !reliables.isEmpty() || streaming || !joining.isEmpty())
+				pipeline.publish(tick);
+		} else {
+			sendTick(tick);
 			updateMessages.clear();
-		}
-		// If there were created entities send them here
-		if (newEntities.size() > 0) {
-			server.sendToAllTCP(NewEntities.make(newEntities));
 			newEntities.clear();
+			removedEntities.clear();
 		}
+		metrics.tick(System.nanoTime() - start);
+	}
+
+	/**
+	 * Gives the new entities their network IDs, on the tick thread, so the tick is done when it is made.<br>
+	 * The create messages carry the ID and are the keys of the map, so they go in a new one.
+	 * 
+	 * @return The same entities, with the IDs in the create messages.
+	 */
+	private HashMap<HashMap<String, Object>, String> assignNetIDs(HashMap<HashMap<String, Object>, String> created) {
+		HashMap<HashMap<String, Object>, String> ret = new HashMap<>(created.size() * 2);
+		for (Entry<HashMap<String, Object>, String> e : created.entrySet()) {
+			e.getKey().put(NetworkIDTable.KEY, netIDs.assign(NWEntity.networkID(e.getKey())));
+			ret.put(e.getKey(), e.getValue());
+		}
+		return ret;
+	}
+
+	/**
+	 * The network stage of a tick. Runs on the tick thread, or on the network thread when pipelined.
+	 * 
+	 * @param tick
+	 *            The news of the tick
+	 */
+	protected void sendTick(ServerTick tick) {
+		long start = System.nanoTime();
+		// Before the creates of this tick, that go to them with everyone else
+		startJoins();
+		// The create messages already carry the network IDs
+		for (Entry<HashMap<String, Object>, String> e : tick.newEntities.entrySet())
+			entityIndex.entityCreated(e.getKey(), e.getValue());
+		for (String id : tick.removedEntities)
+			entityIndex.entityRemoved(id);
+
+		// With interest, creates and removes go to each player with his snapshot
+		// Creates go first, the snapshot says it needs them
+		if (interest == null && tick.newEntities.size() > 0)
+			sendLifecycleToAll(NewEntities.make(tick.newEntities));
+		// Send the newest snapshot to all players, and to those still missing changes of quiet ticks
+		// A player dropped while his last snapshot was made may still be there
+		unsynced.retainAll(baselines.keySet());
+		if (tick.updateMessages.size() > 0 || tick.removedEntities.size() > 0
+				|| (interest != null && tick.newEntities.size() > 0) || !unsynced.isEmpty())
+			sendSnapshots(tick);
 		// If there were removed entities send here
-		if (removedEntities.size() > 0) {
-			server.sendToAllTCP(RemoveEntities.make(removedEntities));
-			removedEntities.clear();
+		if (interest == null && tick.removedEntities.size() > 0)
+			sendLifecycleToAll(RemoveEntities.make(tick.removedEntities));
+		// Their network IDs were sent for the last time
+		for (String id : tick.removedEntities)
+			netIDs.release(id);
+		resendReliable();
+		streamJoins();
+		sampleQueues();
+		metrics.networkStage(System.nanoTime() - start);
+	}
+
+	/**
+	 * Starts sending the world to the players that logged since the last tick.
+	 */
+	protected void startJoins() {
+		Integer connectionID;
+		while ((connectionID = joining.poll()) != null) {
+			Player p = players.get(connectionID);
+			if (p != null)
+				joins.put(connectionID, new JoinStream(connectionID, entityIndex.ids(), entityIndex, worldState,
+						spawnPointOf(p)));
 		}
+		streaming = !joins.isEmpty();
+	}
 
+	/**
+	 * Sends the next pages of the worlds being sent, while the write buffer of each player has room.<br>
+	 * Pages go on the channel of the lifecycle messages. A removal sent on reliable UDP could pass<br>
+	 * a page sent on TCP, and the page would then make an entity that is already gone.
+	 */
+	protected void streamJoins() {
+		if (joins.isEmpty())
+			return;
+		HashMap<Integer, Connection> connections = new HashMap<>();
+		for (Connection con : server.getConnections())
+			connections.put(con.getID(), con);
+		Iterator<JoinStream> it = joins.values().iterator();
+		while (it.hasNext()) {
+			JoinStream stream = it.next();
+			Connection con = connections.get(stream.getConnectionID());
+			// Gone
+			if (con == null || !baselines.containsKey(stream.getConnectionID())) {
+				it.remove();
+				continue;
+			}
+			ReliableChannel channel = reliables.get(stream.getConnectionID());
+			if (channel != null) {
+				// Small pages, each one a UDP packet
+				int pageSize = Math.min(joinPageSize, Messaging.SNAPSHOT_CHUNK_SIZE - CHUNK_OVERHEAD);
+				while (channel.getPendingCount() < JOIN_WINDOW) {
+					sendReliable(stream.getConnectionID(), channel,
+							stream.nextPage(entityIndex, worldState, pageSize, sizingKryo, sizingOutput));
+					if (stream.isDone()) {
+						it.remove();
+						break;
+					}
+				}
+				continue;
+			}
+			while (con.getTcpWriteBufferSize() < joinBuffer) {
+				sendToTCP(stream.getConnectionID(),
+						stream.nextPage(entityIndex, worldState, joinPageSize, sizingKryo, sizingOutput));
+				if (stream.isDone()) {
+					it.remove();
+					break;
+				}
+			}
+		}
+		streaming = !joins.isEmpty();
+	}
+
+	/**
+	 * Where a player that just logged starts, to send him the entities close to it first.<br>
+	 * Override for game specific spawns.
+	 * 
+	 * @return The point. The center of the world by default, or null for any order.
+	 */
+	protected Vector2 spawnPointOf(Player p) {
+		if (worldBounds == null)
+			return new Vector2();
+		return new Vector2(worldBounds.x + worldBounds.width / 2, worldBounds.y + worldBounds.height / 2);
+	}
+
+	/*
+	 * SENDING
+	 */
+
+	/**
+	 * @return The message, serialized already if this is the network thread.
+	 */
+	private Object encoded(Object message) {
+		if (pipeline != null && pipeline.isNetworkThread())
+			return encoders.get().encode(message);
+		return message;
+	}
+
+	protected void sendToTCP(int connectionID, Object message) {
+		server.sendToTCP(connectionID, encoded(message));
+	}
+
+	protected void sendToUDP(int connectionID, Object message) {
+		server.sendToUDP(connectionID, encoded(message));
+	}
+
+	/**
+	 * Sends to all connections. The message is serialized once, not once for each connection.
+	 */
+	protected void sendToAllTCP(Object message) {
+		server.sendToAllTCP(encoders.get().encode(message));
+	}
+
+	/**
+	 * Sends an entity lifecycle message to one player: on his reliable channel, or on TCP when<br>
+	 * reliable UDP is off. Big messages are split to fit the UDP packets.
+	 */
+	protected void sendLifecycle(int connectionID, Object message) {
+		ReliableChannel channel = reliables.get(connectionID);
+		if (channel == null) {
+			sendToTCP(connectionID, message);
+			return;
+		}
+		for (Object part : splitLifecycle(message))
+			sendReliable(connectionID, channel, part);
+	}
+
+	/**
+	 * Sends an entity lifecycle message to all connections. Serialized once, like {@link #sendToAllTCP(Object)}.
+	 */
+	protected void sendLifecycleToAll(Object message) {
+		if (reliables.isEmpty()) {
+			sendToAllTCP(message);
+			return;
+		}
+		for (Object part : splitLifecycle(message)) {
+			Encoded once = encoders.get().encode(part).copy();
+			for (Connection con : server.getConnections()) {
+				ReliableChannel channel = reliables.get(con.getID());
+				if (channel != null)
+					sendReliable(con.getID(), channel, once);
+				else
+					server.sendToTCP(con.getID(), once);
+			}
+		}
+	}
+
+	private void sendReliable(int connectionID, ReliableChannel channel, Object message) {
+		Reliable packet = channel.send(message, TimeUtils.millis());
+		if (!channel.lose())
+			sendToUDP(connectionID, packet);
+	}
+
+	/**
+	 * Sends again the reliable messages that weren't acknowledged in time.
+	 */
+	protected void resendReliable() {
+		long now = TimeUtils.millis();
+		for (Entry<Integer, ReliableChannel> e : reliables.entrySet())
+			for (Reliable packet : e.getValue().resend(now)) {
+				metrics.trafficOf(e.getKey()).resent.incrementAndGet();
+				if (!e.getValue().lose())
+					sendToUDP(e.getKey(), packet);
+			}
+	}
+
+	/**
+	 * Samples the queues for the metrics: the write buffers and reliable messages of each<br>
+	 * connection, the inbound queue and the pipeline.
+	 */
+	protected void sampleQueues() {
+		for (Connection con : server.getConnections()) {
+			ServerMetrics.Traffic t = metrics.trafficOf(con.getID());
+			t.writeBuffer = con.getTcpWriteBufferSize();
+			ReliableChannel channel = reliables.get(con.getID());
+			t.reliablePending = channel == null ? 0 : channel.getPendingCount();
+		}
+		metrics.queues(inbound.size(), inbound.getDropped(), pipeline == null ? 0 : pipeline.getBacklog(),
+				pipeline == null ? 0 : pipeline.getStalls());
+	}
+
+	/**
+	 * Splits creates and removes in messages of at most {@link Messaging#SNAPSHOT_CHUNK_SIZE} bytes.<br>
+	 * Other messages go whole.
+	 */
+	protected ArrayList<Object> splitLifecycle(Object message) {
+		ArrayList<Object> ret = new ArrayList<>();
+		if (message instanceof NewEntities) {
+			HashMap<HashMap<String, Object>, String> part = new HashMap<>();
+			int size = CHUNK_OVERHEAD;
+			for (Entry<HashMap<String, Object>, String> e : ((NewEntities) message).newEntities.entrySet()) {
+				int entitySize = PriorityAccumulator.sizeOf(e.getValue(), e.getKey(), sizingKryo, sizingOutput);
+				if (size + entitySize > Messaging.SNAPSHOT_CHUNK_SIZE && part.size() > 0) {
+					ret.add(NewEntities.make(part));
+					part = new HashMap<>();
+					size = CHUNK_OVERHEAD;
+				}
+				part.put(e.getKey(), e.getValue());
+				size += entitySize;
+			}
+			ret.add(NewEntities.make(part));
+		} else if (message instanceof RemoveEntities) {
+			ArrayList<String> part = new ArrayList<>();
+			int size = CHUNK_OVERHEAD;
+			for (String id : ((RemoveEntities) message).removedEntities) {
+				if (size + id.length() + 2 > Messaging.SNAPSHOT_CHUNK_SIZE && part.size() > 0) {
+					ret.add(RemoveEntities.make(part));
+					part = new ArrayList<>();
+					size = CHUNK_OVERHEAD;
+				}
+				part.add(id);
+				size += id.length() + 2;
+			}
+			ret.add(RemoveEntities.make(part));
+		} else
+			ret.add(message);
+		return ret;
+	}
+
+	/**
+	 * Applies the update messages of this tick to the world state and sends each<br>
+	 * logged player a snapshot with only what changed since the last snapshot he acknowledged.<br>
+	 * Players with no acknowledged snapshot still in the history get full messages.<br>
+	 * With interest, each player only gets the entities relevant to him, and the creates and<br>
+	 * removes of the entities entering and leaving his interest.<br>
+	 * With a budget, each snapshot only gets the changes with the highest priority that fit.
+	 */
+	protected void sendSnapshots(ServerTick tick) {
+		int sequence = ++snapshotSequence;
+
+		// Update the world state. Changed entities get a new message, the others keep theirs.
+		// Updates only have what changed, so they are merged over the last full message.
+		for (Entry<String, HashMap<String, Object>> e : tick.updateMessages.entrySet()) {
+			HashMap<String, Object> old = worldState.get(e.getKey());
+			if (old == null)
+				old = new HashMap<>();
+			worldState.put(e.getKey(), SnapshotDelta.copy(SnapshotDelta.merge(old, e.getValue())));
+		}
+		for (String id : tick.removedEntities)
+			worldState.remove(id);
+
+		if (interest != null)
+			interest.index(entityIndex, worldState);
+
+		// The state every player will have after this snapshot. Shared, never changed.
+		HashMap<String, HashMap<String, Object>> state = interest == null ? new HashMap<>(worldState) : null;
+		long stamp = tick.stamp;
+		// Players that see everything with the same baseline get the same snapshot. Serialized once.
+		// With a budget, only those whose priorities also picked the same entities.
+		HashMap<SharedKey, SharedSnapshot> shared = null;
+		if (interest == null)
+			shared = new HashMap<>();
+
+		for (Entry<Integer, SnapshotHistory> client : baselines.entrySet()) {
+			SnapshotHistory history = client.getValue();
+			HashMap<String, HashMap<String, Object>> known = state;
+			ArrayList<String> left = null;
+			Player p = players.get(client.getKey());
+			if (interest != null) {
+				ArrayList<String> entered = new ArrayList<>();
+				left = new ArrayList<>();
+				HashSet<String> relevant = p == null ? null : interest.update(client.getKey(), p.getPlayerID(),
+						entityIndex, worldState, entered, left);
+				// Not logged yet
+				if (relevant == null)
+					continue;
+				known = new HashMap<>(relevant.size() * 2);
+				for (String id : relevant)
+					if (worldState.containsKey(id))
+						known.put(id, worldState.get(id));
+				// Create what came close before updating it
+				if (entered.size() > 0) {
+					HashMap<HashMap<String, Object>, String> creates = new HashMap<>();
+					for (String id : entered)
+						creates.put(entityIndex.createMessage(id, worldState), entityIndex.classOf(id));
+					sendLifecycle(client.getKey(), NewEntities.make(creates));
+				}
+			}
+
+			int baselineSequence = history.getAcked();
+			HashMap<String, HashMap<String, Object>> baseline = history.get(baselineSequence);
+			// Too old or nothing acknowledged yet. Full state.
+			if (baseline == null)
+				baselineSequence = -1;
+			int lastInput = tick.lastInputOf(client.getKey());
+			int reliable = reliableOf(client.getKey());
+			// Without a budget the deltas only depend on the baseline, skip making them again
+			SharedKey sharedKey = shared == null || snapshotBudget > 0 ? null
+					: new SharedKey(baseline, lastInput, reliable, null);
+			if (sharedKey != null && sendShared(client.getKey(), history, sequence, shared.get(sharedKey)))
+				continue;
+
+			HashMap<String, HashMap<String, Object>> deltas = new HashMap<>();
+			for (Entry<String, HashMap<String, Object>> e : known.entrySet()) {
+				HashMap<String, Object> old = baseline == null ? null : baseline.get(e.getKey());
+				// He doesn't know this one
+				if (old == null) {
+					deltas.put(e.getKey(), e.getValue());
+					continue;
+				}
+				// Didn't change since his baseline
+				if (old == e.getValue())
+					continue;
+				HashMap<String, Object> delta = SnapshotDelta.diff(old, e.getValue());
+				if (delta != null)
+					deltas.put(e.getKey(), delta);
+			}
+			// In sync once his baseline has it all
+			boolean behind = deltas.size() > 0;
+			if (behind)
+				unsynced.add(client.getKey());
+			else
+				unsynced.remove(client.getKey());
+
+			// Too much to send. The most important go now, the others wait.
+			if (snapshotBudget > 0 && deltas.size() > 0) {
+				PriorityAccumulator accumulator = priorities.get(client.getKey());
+				if (accumulator == null) {
+					accumulator = new PriorityAccumulator();
+					priorities.put(client.getKey(), accumulator);
+				}
+				ArrayList<Vector2> centers = p == null ? new ArrayList<Vector2>()
+						: entityIndex.positionsOf(p.getPlayerID(), worldState);
+				for (String id : deltas.keySet())
+					accumulator.add(id, priorityOf(id, known.get(id), baseline == null ? null : baseline.get(id),
+							centers));
+				accumulator.retain(known.keySet());
+
+				HashMap<String, HashMap<String, Object>> sent = accumulator.select(deltas, snapshotBudget,
+						sizingKryo, sizingOutput);
+				if (sent.size() < deltas.size()) {
+					// He keeps the old messages of what was left out
+					HashMap<String, HashMap<String, Object>> partial = new HashMap<>(known.size() * 2);
+					for (Entry<String, HashMap<String, Object>> e : known.entrySet()) {
+						HashMap<String, Object> old = baseline == null ? null : baseline.get(e.getKey());
+						if (!deltas.containsKey(e.getKey()) || sent.containsKey(e.getKey()))
+							partial.put(e.getKey(), e.getValue());
+						else if (old != null)
+							partial.put(e.getKey(), old);
+					}
+					known = partial;
+					deltas = sent;
+				}
+			}
+			// The same picks over the same baseline give the same snapshot
+			if (shared != null && sharedKey == null) {
+				sharedKey = new SharedKey(baseline, lastInput, reliable, deltas.keySet());
+				if (sendShared(client.getKey(), history, sequence, shared.get(sharedKey)))
+					continue;
+			}
+
+			history.store(sequence, known);
+			if (shared != null) {
+				SharedSnapshot same = new SharedSnapshot(known, behind);
+				if (deltas.size() > 0)
+					for (Snapshot chunk : chunkSnapshot(sequence, baselineSequence, stamp, deltas)) {
+						chunk.lastInput = lastInput;
+						chunk.reliable = reliable;
+						same.chunks.add(encoders.get().encode(chunk).copy());
+					}
+				shared.put(sharedKey, same);
+				for (Encoded chunk : same.chunks)
+					server.sendToUDP(client.getKey(), chunk);
+			} else if (deltas.size() > 0)
+				sendSnapshot(client.getKey(), sequence, baselineSequence, stamp, lastInput, deltas);
+			// Remove what went away or died
+			if (left != null && left.size() > 0)
+				sendLifecycle(client.getKey(), RemoveEntities.make(left));
+		}
+	}
+
+	/**
+	 * Sends a snapshot already made for another player.
+	 * 
+	 * @return false if there is none.
+	 */
+	private boolean sendShared(int connectionID, SnapshotHistory history, int sequence, SharedSnapshot same) {
+		if (same == null)
+			return false;
+		history.store(sequence, same.known);
+		if (same.behind)
+			unsynced.add(connectionID);
+		else
+			unsynced.remove(connectionID);
+		for (Encoded chunk : same.chunks)
+			server.sendToUDP(connectionID, chunk);
+		return true;
+	}
+
+	/**
+	 * Sends a snapshot in chunks of at most {@link Messaging#SNAPSHOT_CHUNK_SIZE} bytes.<br>
+	 * Each chunk has whole entity messages, so a lost chunk only loses its entities. An entity<br>
+	 * message bigger than a chunk goes alone.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param lastInput
+	 *            The last input of the player applied before the snapshot, see {@link ServerTick#lastInputs}
+	 * @param deltas
+	 *            EntityID -> Message
+	 */
+	protected void sendSnapshot(int connectionID, int sequence, int baseline, long stamp, int lastInput,
+			HashMap<String, HashMap<String, Object>> deltas) {
+		int reliable = reliableOf(connectionID);
+		for (Snapshot chunk : chunkSnapshot(sequence, baseline, stamp, deltas)) {
+			chunk.lastInput = lastInput;
+			chunk.reliable = reliable;
+			sendToUDP(connectionID, chunk);
+		}
+	}
+
+	/**
+	 * @return The sequence of the last input got from a player, 0 if none.
+	 */
+	protected int lastInputOf(int connectionID) {
+		Integer last = lastInputs.get(connectionID);
+		return last == null ? 0 : last;
+	}
+
+	/**
+	 * @return The sequence of the last reliable message sent to a player, 0 if none.
+	 */
+	protected int reliableOf(int connectionID) {
+		ReliableChannel channel = reliables.get(connectionID);
+		return channel == null ? 0 : channel.getLastSent();
+	}
+
+	/**
+	 * Called on the tick thread for each player input, at the start of the tick.<br>
+	 * Remembers its sequence to tell the client, so it stops predicting it.<br>
+	 * Override to process inputs here, calling super.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param input
+	 *            The input
+	 */
+	protected void inputReceived(int connectionID, ControlShip input) {
+		if (input.sequence > lastInputOf(connectionID))
+			lastInputs.put(connectionID, input.sequence);
+	}
+
+	/**
+	 * Called on the tick thread for each input stream packet, at the start of the tick. Calls {@link #inputState} for each state that<br>
+	 * didn't come in an earlier packet, oldest first. Duplicated and late packets give nothing.<br>
+	 * States lost beyond the redundancy are skipped, the next one has the whole state anyway.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param input
+	 *            The packet
+	 */
+	protected void inputReceived(int connectionID, PlayerInput input) {
+		int last = lastInputOf(connectionID);
+		if (input.sequence <= last || input.entityID == null)
+			return;
+		for (int i = input.buttons.length - 1; i >= 0; i--) {
+			int sequence = input.sequence - i;
+			if (sequence > last)
+				inputState(connectionID, input.entityID, sequence, input.buttons[i], input.axes[i]);
+		}
+		lastInputs.put(connectionID, input.sequence);
+	}
+
+	/**
+	 * Implement to apply the control state of a player. Called on the tick thread.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param entityID
+	 *            The controlled entity
+	 * @param sequence
+	 *            The sequence of this state, one more than the last
+	 * @param buttons
+	 *            The pressed buttons, see {@link InputChannel#isPressed(int, int)}
+	 * @param axes
+	 *            The analog axes, from -1 to 1
+	 */
+	protected void inputState(int connectionID, String entityID, int sequence, int buttons, float[] axes) {
+	}
+
+	/**
+	 * Implement to spawn the ship a player asks for. Called on the tick thread.<br>
+	 * The server can't tell the entity class from the create message, so it does nothing by default.<br>
+	 * Make the entity, load the message into it with nwReceive and {@link #spawn(NWEntity, float, float)} it.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param request
+	 *            The create message of the ship and its owner
+	 */
+	protected void spawnRequested(int connectionID, SpawnPlayer request) {
+	}
+
+	/**
+	 * Implement to spawn an entity a player asks for, like a shot. Called on the tick thread.<br>
+	 * Does nothing by default, see {@link #spawnRequested(int, SpawnPlayer)}.
+	 * 
+	 * @param connectionID
+	 *            The player connection
+	 * @param request
+	 *            The create message of the entity and its owner
+	 */
+	protected void spawnRequested(int connectionID, SpawnEntity request) {
+	}
+
+	/**
+	 * Splits a snapshot in chunks of at most {@link Messaging#SNAPSHOT_CHUNK_SIZE} bytes.
+	 * 
+	 * @param deltas
+	 *            EntityID -> Message
+	 * @return The chunks, in order.
+	 */
+	protected ArrayList<Snapshot> chunkSnapshot(int sequence, int baseline, long stamp,
+			HashMap<String, HashMap<String, Object>> deltas) {
+		ArrayList<HashMap<String, HashMap<String, Object>>> chunks = new ArrayList<>();
+		HashMap<String, HashMap<String, Object>> chunk = new HashMap<>();
+		int size = CHUNK_OVERHEAD;
+		for (Entry<String, HashMap<String, Object>> e : deltas.entrySet()) {
+			int entitySize = PriorityAccumulator.sizeOf(e.getKey(), e.getValue(), sizingKryo, sizingOutput);
+			if (size + entitySize > Messaging.SNAPSHOT_CHUNK_SIZE && chunk.size() > 0) {
+				chunks.add(chunk);
+				chunk = new HashMap<>();
+				size = CHUNK_OVERHEAD;
+			}
+			chunk.put(e.getKey(), e.getValue());
+			size += entitySize;
+		}
+		chunks.add(chunk);
+
+		ArrayList<Snapshot> ret = new ArrayList<>(chunks.size());
+		for (int i = 0; i < chunks.size(); i++)
+			ret.add(Snapshot.make(sequence, baseline, i, chunks.size(), stamp, chunks.get(i)));
+		return ret;
+	}
+
+	/**
+	 * How much the send priority of an entity grows this tick, for one player.<br>
+	 * Grows with the class weight, with how close it is to the player entities and with how much<br>
+	 * it moved since he last got it. Entities he doesn't have yet grow the fastest.<br>
+	 * Override for game specific priorities.
+	 * 
+	 * @param id
+	 *            The entity ID
+	 * @param current
+	 *            The latest full message
+	 * @param old
+	 *            The message the player has, or null
+	 * @param centers
+	 *            The positions of the player entities
+	 * @return The priority to add
+	 */
+	protected float priorityOf(String id, HashMap<String, Object> current, HashMap<String, Object> old,
+			ArrayList<Vector2> centers) {
+		Float weight = classPriorities.get(entityIndex.classOf(id));
+		float priority = weight == null ? 1 : weight;
+		// He doesn't have it
+		if (old == null)
+			return priority * 4;
+
+		Vector2 pos = (Vector2) current.get("nw_position");
+		if (pos == null)
+			return priority;
+		// Closer is more important
+		if (centers.size() > 0) {
+			float closest = Float.MAX_VALUE;
+			for (Vector2 center : centers)
+				closest = Math.min(closest, pos.dst(center));
+			priority *= priorityDistance / (priorityDistance + closest);
+		}
+		// Bigger changes are more important
+		Vector2 was = (Vector2) old.get("nw_position");
+		if (was != null)
+			priority *= 1 + pos.dst(was) * 16 / priorityDistance;
+		return priority;
 	}
 
 	/*
 	 * MESSAGE HANDLERS
 	 */
 
-	private boolean login(int connectionid, Login msg) {
+	/**
+	 * @return null if the player logged, or the message that tells him why not.
+	 */
+	private Object login(int connectionid, Login msg) {
+		// Its type IDs would make the wrong classes, its field IDs the wrong keys
+		if (msg.entityTypes != NWTypeRegistry.checksum())
+			return LoginRefused.make("The entity types differ from the ones of the server");
+		if (msg.fields != NWFields.checksum())
+			return LoginRefused.make("The networked fields differ from the ones of the server");
 		if (!players.containsValue(msg.p)) {
 			// Store the player
 			players.put(connectionid, msg.p);
-			// Respond him with the existing entitites as a list of new entities
-			HashMap<HashMap<String, Object>, String> allEnts = new HashMap<>();
-			for (NWEntity ent : entities.asList()) {
-				allEnts.put(ent.nwCreate(), ent.getClass().getName());
-			}
-			// Make the message
-			EntitiesOnTheServer messsage = EntitiesOnTheServer.make(allEnts);
-			server.sendToTCP(connectionid, messsage);
+			// He knows nothing yet
+			if (interest != null)
+				interest.addClient(connectionid);
+			// He has no snapshots yet
+			baselines.put(connectionid, new SnapshotHistory());
+			if (reliableUDP) {
+				ReliableChannel channel = new ReliableChannel();
+				channel.setSimulatedLoss(simulatedLoss);
+				reliables.put(connectionid, channel);
+			}
+			// Respond him with the existing entitites, in pages from the network tick
+			// With interest they come with the snapshots, as they get close
+			if (interest == null)
+				joining.add(connectionid);
+			else
+				server.sendToTCP(connectionid, EntitiesOnTheServer.make(new HashMap<HashMap<String, Object>, String>()));
 			// Send the ship avaliable id too
 			server.sendToTCP(connectionid, AvaliableID.make(Entity.getNewID()));
-			return false; // no problems
+			return null; // no problems
 		}
-		return true;
+		return new AlreadyLoggedIn();
 	}
 
 	private void playerDropped(int connectionID) {
-		server.sendToAllTCP(PlayerDropped.make(players.get(connectionID)));
-		players.remove(connectionID);
+		// Forget him first, a failed broadcast must not leave him behind
+		reliables.remove(connectionID);
+		Player p = players.remove(connectionID);
+		baselines.remove(connectionID);
+		priorities.remove(connectionID);
+		unsynced.remove(connectionID);
+		lastInputs.remove(connectionID);
+		metrics.removeConnection(connectionID);
+		if (interest != null)
+			interest.removeClient(connectionID);
+		// Never logged, nobody knows him
+		if (p != null)
+			sendLifecycleToAll(PlayerDropped.make(p));
 	}
 
 	/*
@@ -196,9 +1197,15 @@ public abstract class GameServer {
 	 */
 
 	/**
-	 * Start the server thread that calls update each stepTime milliseconds.
+	 * Start the server thread that calls update each stepTime milliseconds.<br>
+	 * With zones, each zone gets its own thread too.
 	 */
 	public void start() {
+		if (isZoned())
+			for (ServerZone zone : zones)
+				zone.start(stepTime);
+		if (pipeline != null)
+			pipeline.start();
 		timer.scheduleAtFixedRate(new TimerTask() {
 			@Override
 			public void run() {
@@ -207,6 +1214,78 @@ public abstract class GameServer {
 		}, 0, stepTime);
 	}
 
+	/**
+	 * What makes two snapshots the same: the baseline they are made against (the same state object),<br>
+	 * the echoed sequences and, with a budget, the entities picked.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	private static class SharedKey {
+		private final HashMap<String, HashMap<String, Object>>	baseline;
+		private final int										lastInput, reliable;
+		private final Set<String>								picked;
+
+		SharedKey(HashMap<String, HashMap<String, Object>> baseline, int lastInput, int reliable, Set<String> picked) {
+			this.baseline = baseline;
+			this.lastInput = lastInput;
+			this.reliable = reliable;
+			this.picked = picked;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof SharedKey))
+				return false;
+			SharedKey o = (SharedKey) obj;
+			return baseline == o.baseline && lastInput == o.lastInput && reliable == o.reliable
+					&& (picked == null ? o.picked == null : picked.equals(o.picked));
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(baseline);
+			hash = 31 * hash + lastInput;
+			hash = 31 * hash + reliable;
+			return 31 * hash + (picked == null ? 0 : picked.hashCode());
+		}
+	}
+
+	/**
+	 * A snapshot made for one player, to send to the others with the same {@link SharedKey}.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	private static class SharedSnapshot {
+		// The state the players have after it. Shared too, so their next baselines are the same.
+		final HashMap<String, HashMap<String, Object>>	known;
+		// If there were changes, sent or left out
+		final boolean									behind;
+		final ArrayList<Encoded>						chunks	= new ArrayList<>();
+
+		SharedSnapshot(HashMap<String, HashMap<String, Object>> known, boolean behind) {
+			this.known = known;
+			this.behind = behind;
+		}
+	}
+
+	/**
+	 * Gives each message taken from the inbound queue to its handler.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	private class Dispatcher implements InboundQueue.Consumer {
+		@Override
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public void accept(int connectionID, Object message) {
+			MessageHandler handler = handlers.get(message.getClass());
+			if (handler != null)
+				handler.handle(connectionID, message);
+		}
+	}
+
 	/**
 	 * The internal listener. This maps to calls of the game server methods.
 	 * 
@@ -228,10 +1307,27 @@ public abstract class GameServer {
 			/*
 			 * Map spawn message to method
 			 */
+			if (obj instanceof SnapshotAck) {
+				SnapshotHistory history = baselines.get(con.getID());
+				if (history != null)
+					history.ack(((SnapshotAck) obj).sequence);
+			}
+			if (obj instanceof ReliableAck) {
+				ReliableChannel channel = reliables.get(con.getID());
+				if (channel != null)
+					channel.acked((ReliableAck) obj, TimeUtils.millis());
+			}
+
+			// Gameplay messages wait for the tick thread
+			if (handlers.containsKey(obj.getClass()))
+				inbound.offer(con.getID(), obj);
+
 			if (obj instanceof Login) {
-				// If login returns true, the player is already logged!
-				if (login(con.getID(), (Login) obj)) {
-					server.sendToTCP(con.getID(), new AlreadyLoggedIn());
+				// Refused, tell him why
+				Object refusal = login(con.getID(), (Login) obj);
+				if (refusal != null) {
+					metrics.loginRefused();
+					server.sendToTCP(con.getID(), refusal);
 					con.close();
 				}
 			}
@@ -0,0 +1,125 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock free queue for the messages the players send. Many threads offer (the network<br>
+ * threads), one thread polls (the tick thread).<br>
+ * Each slot has a sequence that says whose turn it is: a producer claims a slot by moving the tail<br>
+ * with a compare and set, writes the message and then publishes the sequence. The consumer only<br>
+ * reads a slot after its sequence is published.<br>
+ * When it is full new messages are dropped and counted, the network thread never waits.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class InboundQueue {
+
+	/**
+	 * Takes the messages polled from the queue.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public interface Consumer {
+		public void accept(int connectionID, Object message);
+	}
+
+	private final int				mask;
+	private final AtomicLongArray	sequences;
+	private final int[]				connections;
+	private final Object[]			messages;
+	private final AtomicLong		tail		= new AtomicLong();
+	private final AtomicLong		dropped		= new AtomicLong();
+	// Only the consumer moves it
+	private long					head		= 0;
+
+	/**
+	 * @param capacity
+	 *            How many messages can wait. Rounded up to a power of two.
+	 */
+	public InboundQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+		connections = new int[size];
+		messages = new Object[size];
+	}
+
+	/**
+	 * Adds a message. Any thread.
+	 *
+	 * @return false if the queue was full and the message was dropped.
+	 */
+	public boolean offer(int connectionID, Object message) {
+		while (true) {
+			long t = tail.get();
+			int slot = (int) t & mask;
+			long diff = sequences.get(slot) - t;
+			if (diff == 0) {
+				if (tail.compareAndSet(t, t + 1)) {
+					connections[slot] = connectionID;
+					messages[slot] = message;
+					// Publishes the writes above to the consumer
+					sequences.set(slot, t + 1);
+					return true;
+				}
+			} else if (diff < 0) {
+				// The consumer didn't free this slot yet
+				dropped.incrementAndGet();
+				return false;
+			}
+			// Another producer took it, try the next
+		}
+	}
+
+	/**
+	 * Takes the messages that are in the queue now, in order. Messages offered meanwhile wait for<br>
+	 * the next call. <b>Only one thread may call this.</b>
+	 *
+	 * @return How many messages were taken.
+	 */
+	public int drain(Consumer consumer) {
+		long end = tail.get();
+		int count = 0;
+		while (head < end) {
+			int slot = (int) head & mask;
+			// Claimed but not written yet
+			if (sequences.get(slot) != head + 1)
+				break;
+			int connectionID = connections[slot];
+			Object message = messages[slot];
+			messages[slot] = null;
+			// Frees the slot for the lap after this one
+			sequences.set(slot, head + mask + 1);
+			head++;
+			count++;
+			consumer.accept(connectionID, message);
+		}
+		return count;
+	}
+
+	/**
+	 * @return How many messages were dropped because the queue was full.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return About how many messages are waiting.
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	/**
+	 * @return How many messages can wait.
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+}
@@ -0,0 +1,160 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.Arrays;
+
+import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
+import com.lucascarvalhaes.centurion.networking.Messaging.PlayerInput;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * The client side of the input stream. Keeps the control state of the player as a bitfield of<br>
+ * buttons and some analog axes, and makes a {@link PlayerInput} each client tick.<br>
+ * Each message has the whole state with a sequence number, and the last {@link #getRedundancy()}<br>
+ * states too, so it can go over UDP: a lost packet is covered by the next ones and a late one<br>
+ * doesn't hold the others back, like on TCP.<br>
+ * The sequences share the acknowledgement of the {@link ControlShip} ones, use one or the other.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class InputChannel {
+
+	/**
+	 * How many older states go with each message by default
+	 */
+	public static final int	DEFAULT_REDUNDANCY	= 3;
+
+	/**
+	 * Button bits. Games can use the other bits as they like.
+	 */
+	public static final int	LEFT				= 1 << 0, RIGHT = 1 << 1, UP = 1 << 2, DOWN = 1 << 3, FIRE = 1 << 4;
+
+	private final int[]		buttonsHistory;
+	private final float[][]	axesHistory;
+	private int				sequence			= 0;
+	private int				buttons				= 0;
+	private float[]			axes				= new float[0];
+	private String			entityID			= null;
+
+	public InputChannel() {
+		this(DEFAULT_REDUNDANCY);
+	}
+
+	/**
+	 * @param redundancy
+	 *            How many older states go with each message
+	 */
+	public InputChannel(int redundancy) {
+		buttonsHistory = new int[redundancy + 1];
+		axesHistory = new float[redundancy + 1][];
+	}
+
+	/**
+	 * @param entityID
+	 *            The entity the inputs control, see {@link NWEntity#getEntityID()}. Null stops sending.
+	 */
+	public synchronized void setEntity(String entityID) {
+		this.entityID = entityID;
+	}
+
+	/**
+	 * @return The controlled entity or null.
+	 */
+	public synchronized String getEntity() {
+		return entityID;
+	}
+
+	/**
+	 * Presses or releases buttons.
+	 *
+	 * @param mask
+	 *            The button bits, like {@link #LEFT} | {@link #UP}
+	 */
+	public synchronized void setButton(int mask, boolean pressed) {
+		if (pressed)
+			buttons |= mask;
+		else
+			buttons &= ~mask;
+	}
+
+	/**
+	 * Sets an analog axis.
+	 *
+	 * @param axis
+	 *            The axis index. The state grows to have it.
+	 * @param value
+	 *            From -1 to 1
+	 */
+	public synchronized void setAxis(int axis, float value) {
+		if (axis >= axes.length)
+			axes = Arrays.copyOf(axes, axis + 1);
+		axes[axis] = value;
+	}
+
+	/**
+	 * Applies an old style control message to the state.
+	 */
+	public void apply(ControlShip control) {
+		setButton(buttonOf(control.dir), control.pressed);
+	}
+
+	/**
+	 * Stores the current state as the next one in the sequence.
+	 *
+	 * @return The message to send, with the older states.
+	 */
+	public synchronized PlayerInput next() {
+		sequence++;
+		int slot = sequence % buttonsHistory.length;
+		buttonsHistory[slot] = buttons;
+		axesHistory[slot] = axes.clone();
+
+		int count = Math.min(sequence, buttonsHistory.length);
+		int[] b = new int[count];
+		float[][] a = new float[count][];
+		for (int i = 0; i < count; i++) {
+			int s = (sequence - i) % buttonsHistory.length;
+			b[i] = buttonsHistory[s];
+			a[i] = axesHistory[s];
+		}
+		return PlayerInput.make(entityID, sequence, b, a);
+	}
+
+	/**
+	 * @return The sequence of the last state made.
+	 */
+	public synchronized int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return How many older states go with each message.
+	 */
+	public int getRedundancy() {
+		return buttonsHistory.length - 1;
+	}
+
+	/**
+	 * @return The button bit of a {@link ControlShip} direction, 0 if unknown.
+	 */
+	public static int buttonOf(String dir) {
+		if (ControlShip.LEFT.equals(dir))
+			return LEFT;
+		if (ControlShip.RIGHT.equals(dir))
+			return RIGHT;
+		if (ControlShip.UP.equals(dir))
+			return UP;
+		if (ControlShip.DOWN.equals(dir))
+			return DOWN;
+		if (ControlShip.FIRE.equals(dir))
+			return FIRE;
+		return 0;
+	}
+
+	/**
+	 * @return true if the buttons of the mask are all pressed in a state.
+	 */
+	public static boolean isPressed(int buttons, int mask) {
+		return (buttons & mask) == mask;
+	}
+}
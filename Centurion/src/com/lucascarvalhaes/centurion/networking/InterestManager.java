@@ -0,0 +1,195 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Area of interest. Decides which entities each client hears about.<br>
+ * A client is interested in the entities of its player and in everything closer than the enter<br>
+ * radius to one of them. Entities stay relevant until they are farther than the leave radius, so<br>
+ * entities on the border don't flicker in and out.<br>
+ * Players with no entities see nothing but what they own.<br>
+ * <b>Used only from the server networking tick, except for adding and removing clients.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class InterestManager {
+
+	private final float											enterRadius, leaveRadius;
+	private final float											cellSize;
+
+	/**
+	 * The entities by grid cell, rebuilt each tick
+	 */
+	private final HashMap<Long, ArrayList<String>>				grid		= new HashMap<>();
+	/**
+	 * What each client knows about - ConnectionID -> EntityIDs
+	 */
+	private final ConcurrentHashMap<Integer, HashSet<String>>	relevant	= new ConcurrentHashMap<>();
+
+	/**
+	 * @param radius
+	 *            How close an entity must be to one of the player entities to be sent.
+	 */
+	public InterestManager(float radius) {
+		this(radius, radius * 1.25f);
+	}
+
+	/**
+	 * @param enterRadius
+	 *            How close an entity must be to one of the player entities to start being sent.
+	 * @param leaveRadius
+	 *            How far it must go to stop being sent. Not smaller than the enter radius.
+	 */
+	public InterestManager(float enterRadius, float leaveRadius) {
+		if (enterRadius <= 0 || leaveRadius < enterRadius)
+			throw new IllegalArgumentException("Bad interest radius: " + enterRadius + " / " + leaveRadius);
+		this.enterRadius = enterRadius;
+		this.leaveRadius = leaveRadius;
+		cellSize = enterRadius;
+	}
+
+	/*
+	 * CLIENTS
+	 */
+
+	public void addClient(int connectionID) {
+		relevant.put(connectionID, new HashSet<String>());
+	}
+
+	public void removeClient(int connectionID) {
+		relevant.remove(connectionID);
+	}
+
+	/*
+	 * INTEREST
+	 */
+
+	/**
+	 * Rebuilds the spatial grid. Call once per tick before
+	 * {@link #update(int, String, EntityIndex, HashMap, ArrayList, ArrayList)}.
+	 *
+	 * @param entities
+	 *            The entities alive
+	 * @param worldState
+	 *            EntityID -> Full update message
+	 */
+	public void index(EntityIndex entities, HashMap<String, HashMap<String, Object>> worldState) {
+		grid.clear();
+		for (String id : entities.ids()) {
+			Vector2 pos = entities.positionOf(id, worldState);
+			if (pos == null)
+				continue;
+			Long cell = key((int) Math.floor(pos.x / cellSize), (int) Math.floor(pos.y / cellSize));
+			ArrayList<String> ids = grid.get(cell);
+			if (ids == null) {
+				ids = new ArrayList<>();
+				grid.put(cell, ids);
+			}
+			ids.add(id);
+		}
+	}
+
+	/**
+	 * Recomputes what a client is interested in.
+	 *
+	 * @param connectionID
+	 *            The client connection
+	 * @param playerID
+	 *            The player of that connection
+	 * @param entities
+	 *            The entities alive
+	 * @param worldState
+	 *            EntityID -> Full update message
+	 * @param entered
+	 *            Filled with the entities the client must create
+	 * @param left
+	 *            Filled with the entities the client must remove
+	 * @return The entities the client is interested in now, or null if the client is not registered.
+	 */
+	public HashSet<String> update(int connectionID, String playerID, EntityIndex entities,
+			HashMap<String, HashMap<String, Object>> worldState, ArrayList<String> entered, ArrayList<String> left) {
+		HashSet<String> known = relevant.get(connectionID);
+		if (known == null)
+			return null;
+
+		// Where the player is
+		ArrayList<Vector2> centers = entities.positionsOf(playerID, worldState);
+		HashSet<String> now = new HashSet<>(entities.ownedBy(playerID));
+
+		// Keep what is still inside the leave radius
+		for (String id : known) {
+			if (!entities.contains(id))
+				continue; // Removed
+			if (now.contains(id) || closeTo(entities.positionOf(id, worldState), centers, leaveRadius))
+				now.add(id);
+		}
+
+		// Add what came inside the enter radius
+		int reach = (int) Math.ceil(enterRadius / cellSize);
+		for (Vector2 center : centers) {
+			int cx = (int) Math.floor(center.x / cellSize);
+			int cy = (int) Math.floor(center.y / cellSize);
+			for (int x = cx - reach; x <= cx + reach; x++)
+				for (int y = cy - reach; y <= cy + reach; y++) {
+					ArrayList<String> ids = grid.get(key(x, y));
+					if (ids == null)
+						continue;
+					for (String id : ids)
+						if (!now.contains(id)
+								&& entities.positionOf(id, worldState).dst2(center) <= enterRadius * enterRadius)
+							now.add(id);
+				}
+		}
+
+		for (String id : now)
+			if (!known.contains(id))
+				entered.add(id);
+		for (String id : known)
+			if (!now.contains(id))
+				left.add(id);
+
+		known.clear();
+		known.addAll(now);
+		return known;
+	}
+
+	/*
+	 * HELPERS
+	 */
+
+	private static boolean closeTo(Vector2 pos, ArrayList<Vector2> centers, float radius) {
+		if (pos == null)
+			return false;
+		for (Vector2 center : centers)
+			if (pos.dst2(center) <= radius * radius)
+				return true;
+		return false;
+	}
+
+	private static Long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	public float getEnterRadius() {
+		return enterRadius;
+	}
+
+	public float getLeaveRadius() {
+		return leaveRadius;
+	}
+
+	/**
+	 * Only for reading.
+	 *
+	 * @return The entities each client is interested in. ConnectionID -> EntityIDs
+	 */
+	public HashMap<Integer, HashSet<String>> getRelevant() {
+		return new HashMap<>(relevant);
+	}
+}
@@ -0,0 +1,111 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.lucascarvalhaes.centurion.networking.Messaging.EntitiesOnTheServer;
+
+/**
+ * The world a player gets when he logs in, sent in pages instead of one giant message.<br>
+ * The entities alive when he logged are sent nearest to his spawn first. Each page is made<br>
+ * when it is sent, from the latest state, so entities removed meanwhile are skipped. Entities<br>
+ * created meanwhile go to him like to everyone else.<br>
+ * <b>Used only from the server networking tick.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class JoinStream {
+
+	/**
+	 * Default max bytes of the entity messages in a page, before compression.<br>
+	 * Leaves a quarter of the client object buffer for the page headers.
+	 */
+	public static final int			DEFAULT_PAGE_SIZE	= NetworkFactory.CLIENT_OBJECT_BUFFER * 3 / 4;
+
+	private final int				connectionID;
+	private final ArrayList<String>	ids;
+	private int						next				= 0;
+
+	/**
+	 * @param ids
+	 *            The entities alive now
+	 * @param spawn
+	 *            Where the player starts. Null keeps any order.
+	 */
+	public JoinStream(int connectionID, Collection<String> ids, final EntityIndex index,
+			final HashMap<String, HashMap<String, Object>> worldState, final Vector2 spawn) {
+		this.connectionID = connectionID;
+		this.ids = new ArrayList<>(ids);
+		if (spawn == null)
+			return;
+		final HashMap<String, Float> distance = new HashMap<>(ids.size() * 2);
+		for (String id : this.ids) {
+			Vector2 pos = index.positionOf(id, worldState);
+			// Entities without a position go last
+			distance.put(id, pos == null ? Float.MAX_VALUE : pos.dst2(spawn));
+		}
+		Collections.sort(this.ids, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Float.compare(distance.get(a), distance.get(b));
+			}
+		});
+	}
+
+	/**
+	 * Makes the next page. An entity bigger than a page goes alone.
+	 *
+	 * @param pageSize
+	 *            Max bytes of the entity messages
+	 * @param kryo
+	 *            Used to measure the messages
+	 * @return The page. The last one says so, see {@link EntitiesOnTheServer#last}.
+	 */
+	public EntitiesOnTheServer nextPage(EntityIndex index, HashMap<String, HashMap<String, Object>> worldState,
+			int pageSize, Kryo kryo, Output scratch) {
+		HashMap<HashMap<String, Object>, String> page = new HashMap<>();
+		int size = 0;
+		while (next < ids.size()) {
+			String id = ids.get(next);
+			HashMap<String, Object> create = index.createMessage(id, worldState);
+			// Removed since he logged
+			if (create == null) {
+				next++;
+				continue;
+			}
+			String className = index.classOf(id);
+			int entitySize = PriorityAccumulator.sizeOf(className, create, kryo, scratch);
+			if (size + entitySize > pageSize && page.size() > 0)
+				break;
+			page.put(create, className);
+			size += entitySize;
+			next++;
+		}
+		return EntitiesOnTheServer.make(page, isDone());
+	}
+
+	/**
+	 * @return true if all pages were made.
+	 */
+	public boolean isDone() {
+		return next >= ids.size();
+	}
+
+	/**
+	 * @return How many entities are left to send.
+	 */
+	public int getRemaining() {
+		return ids.size() - next;
+	}
+
+	public int getConnectionID() {
+		return connectionID;
+	}
+}
@@ -0,0 +1,53 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import com.lucascarvalhaes.centurion.networking.Messaging.Encoded;
+import com.lucascarvalhaes.centurion.networking.compression.CompressedSerializer;
+
+/**
+ * Serializes (and compresses) a message once, so the same bytes can go to many connections.<br>
+ * KryoNet serializes a message again for each connection it is sent to. Sending an {@link Encoded}<br>
+ * only copies its bytes.<br>
+ * Has its own kryo, with the same configuration and registrations as the endpoints, and one reused<br>
+ * buffer. <b>Not thread safe</b>, each thread must have its own.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class MessageEncoder {
+
+	private final Kryo		kryo;
+	private final Output	output	= new Output(4096, -1);
+	private final Encoded	encoded	= new Encoded();
+
+	/**
+	 * @param netIDs
+	 *            The network IDs of the endpoint, or null
+	 */
+	public MessageEncoder(NetworkIDTable netIDs) {
+		kryo = new KryoSerialization().getKryo();
+		Messaging.prepare(kryo);
+		if (netIDs != null)
+			netIDs.install(kryo);
+	}
+
+	/**
+	 * Serializes a message into the buffer of this encoder.<br>
+	 * <b>The result is only valid until the next call.</b> KryoNet copies it when sending, so send it<br>
+	 * to everyone first. Use {@link Encoded#copy()} to keep it.
+	 *
+	 * @return The message ready to be sent.
+	 */
+	public Encoded encode(Object message) {
+		output.clear();
+		CompressedSerializer.takeExpansion(kryo);
+		kryo.writeClassAndObject(output, message);
+		encoded.bytes = output.getBuffer();
+		encoded.length = output.position();
+		encoded.type = MeteredSerialization.typeOf(message);
+		encoded.expansion = CompressedSerializer.takeExpansion(kryo);
+		return encoded;
+	}
+}
@@ -0,0 +1,20 @@
+package com.lucascarvalhaes.centurion.networking;
+
+/**
+ * Handles a type of message a player sends. Registered on the {@link GameServer}, runs on the tick<br>
+ * thread at the start of a tick, so it can touch the entities.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ * @param <T>
+ *            The message type
+ */
+public interface MessageHandler<T> {
+	/**
+	 * @param connectionID
+	 *            The connection of the player that sent it
+	 * @param message
+	 *            The message
+	 */
+	public void handle(int connectionID, T message);
+}
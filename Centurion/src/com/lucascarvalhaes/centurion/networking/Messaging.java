@@ -5,11 +5,16 @@ import java.util.HashMap;
 
 import com.badlogic.gdx.math.Vector2;
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.serializers.DeflateSerializer;
+import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryonet.EndPoint;
 import com.lucascarvalhaes.centurion.model.Player;
+import com.lucascarvalhaes.centurion.networking.compression.Codec;
+import com.lucascarvalhaes.centurion.networking.compression.CompressedSerializer;
+import com.lucascarvalhaes.centurion.networking.compression.DeflateCodec;
 import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWFields;
 import com.lucascarvalhaes.centurion.networking.gameModel.NWLiveEntity;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWTypeRegistry;
 
 /**
  * All the messages between the server and the client
@@ -20,6 +25,55 @@ import com.lucascarvalhaes.centurion.networking.gameModel.NWLiveEntity;
 public class Messaging {
 
 	public static final int	PORT_TCP	= 27012, PORT_UDP = 27013;
+	/**
+	 * Max bytes of a snapshot datagram. Bigger snapshots are sent in chunks, so they don't get IP fragmented.
+	 */
+	public static final int	SNAPSHOT_CHUNK_SIZE	= 1200;
+
+	/**
+	 * The compression of the big server messages
+	 */
+	private static Codec	codec					= new DeflateCodec();
+	/**
+	 * Messages with less bytes are not compressed
+	 */
+	private static int		compressionThreshold	= 128;
+	/**
+	 * The entity classes sent by type ID, in order
+	 */
+	private static final ArrayList<Class<? extends NWEntity>>	entityTypes	= new ArrayList<>();
+
+	/**
+	 * Sets how the big server messages are compressed.<br>
+	 * <b>Call before {@link #prepare(EndPoint)}, with the same codec on the server and on the clients.</b>
+	 * 
+	 * @param codec
+	 *            The codec or null to send everything uncompressed.
+	 * @param threshold
+	 *            Messages with less bytes are not compressed.
+	 */
+	public static void setCompression(Codec codec, int threshold) {
+		Messaging.codec = codec;
+		compressionThreshold = threshold;
+	}
+
+	/**
+	 * Sets the entity classes sent by type ID instead of by name, see {@link NWTypeRegistry}.<br>
+	 * <b>Call before {@link #prepare(EndPoint)}, with the same classes in the same order on the server and on the<br>
+	 * clients.</b> Their {@link com.lucascarvalhaes.centurion.networking.gameModel.Networked} fields are registered<br>
+	 * in {@link NWFields} too. The server refuses logins of clients with other types or fields.
+	 * 
+	 * @param types
+	 *            The entity classes
+	 */
+	@SafeVarargs
+	public static void setEntityTypes(Class<? extends NWEntity>... types) {
+		synchronized (entityTypes) {
+			entityTypes.clear();
+			for (Class<? extends NWEntity> type : types)
+				entityTypes.add(type);
+		}
+	}
 
 	/**
 	 * This registers objects that are going to be sent over the network.
@@ -28,7 +82,26 @@ public class Messaging {
 	 *            The server or client to be prepared to talk for this app.
 	 */
 	public static void prepare(EndPoint endPoint) {
-		Kryo kryo = endPoint.getKryo();
+		prepare(endPoint.getKryo());
+	}
+
+	/**
+	 * This registers objects that are going to be sent over the network.<br>
+	 * For kryo instances that must talk like an endpoint, like the one of the {@link NetworkPipeline}.<br>
+	 * The entity classes of the create messages go in the {@link NWTypeRegistry}, shared by all of them.
+	 * 
+	 * @param kryo
+	 *            The kryo to be prepared. Registrations must happen in the same order as on the endpoints.
+	 */
+	public static void prepare(Kryo kryo) {
+		// Entity classes, kept if already registered with a factory, and their networked fields
+		synchronized (entityTypes) {
+			for (Class<? extends NWEntity> type : entityTypes) {
+				if (NWTypeRegistry.idOf(type.getName()) == NWTypeRegistry.NONE)
+					NWTypeRegistry.register(type);
+				NWFields.register(type);
+			}
+		}
 
 		// Inner classes
 		kryo.register(Player.class);
@@ -44,19 +117,36 @@ public class Messaging {
 		kryo.register(AvaliableID.class);
 
 		// Server to client
-		kryo.register(Snapshot.class, new DeflateSerializer(kryo.getDefaultSerializer(Snapshot.class)));
-		kryo.register(NewEntities.class, new DeflateSerializer(kryo.getDefaultSerializer(NewEntities.class)));
-		kryo.register(
-				RemoveEntities.class,
-				new DeflateSerializer(kryo.getDefaultSerializer(RemoveEntities.class)));
+		kryo.register(Snapshot.class, compressed(new NWMessageSerializer.SnapshotSerializer()));
+		kryo.register(NewEntities.class, compressed(new NWMessageSerializer.NewEntitiesSerializer()));
+		kryo.register(RemoveEntities.class, compressed(new NWMessageSerializer.RemoveEntitiesSerializer()));
 
 		kryo.register(
 				EntitiesOnTheServer.class,
-				new DeflateSerializer(kryo.getDefaultSerializer(EntitiesOnTheServer.class)));
+				compressed(new NWMessageSerializer.EntitiesOnTheServerSerializer()));
+
+		// Client to server
+		kryo.register(ControlShip.class, new NWMessageSerializer.ControlShipSerializer());
+		kryo.register(SnapshotAck.class);
+
+		// Both ways
+		kryo.register(Encoded.class, new NWMessageSerializer.EncodedSerializer());
 
 		// Client to server
-		kryo.register(ControlShip.class);
+		kryo.register(PlayerInput.class, new NWMessageSerializer.PlayerInputSerializer());
 
+		// Both ways
+		kryo.register(Reliable.class, new NWMessageSerializer.ReliableSerializer());
+		kryo.register(ReliableAck.class);
+
+		// Server to client
+		kryo.register(PlayerDropped.class);
+		kryo.register(LoginRefused.class);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static CompressedSerializer<?> compressed(Serializer serializer) {
+		return new CompressedSerializer(serializer, codec, compressionThreshold);
 	}
 
 	/*
@@ -78,6 +168,10 @@ public class Messaging {
 		public String	ownerID;
 		public String	dir;
 		public boolean	pressed;
+		/**
+		 * Grows by one each input of the client, so the server can tell which it processed. 0 is not sequenced.
+		 */
+		public int		sequence;
 
 		public static final String	LEFT	= "left", RIGHT = "right", UP = "up", DOWN = "down",
 				FIRE = "fire";
@@ -90,6 +184,160 @@ public class Messaging {
 			ret.dir = command;
 			return ret;
 		}
+
+		public static ControlShip make(String ownerID, String shipID, String command, boolean pressed, int sequence) {
+			ControlShip ret = make(ownerID, shipID, command, pressed);
+			ret.sequence = sequence;
+			return ret;
+		}
+	}
+
+	/*
+	 * BOTH WAYS
+	 */
+
+	/**
+	 * A message serialized already, by another kryo with the same registrations.<br>
+	 * Sending it only copies the bytes. The other side receives the message inside, not this.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class Encoded {
+		/**
+		 * The class and the message, as written by kryo. May be bigger than the message.
+		 */
+		public byte[]	bytes;
+		/**
+		 * How many bytes of the array are the message
+		 */
+		public int		length;
+		/**
+		 * For the metrics: the type of the message and the bytes compression saved on it
+		 */
+		public String	type;
+		public int		expansion;
+
+		public static Encoded make(byte[] bytes) {
+			Encoded ret = new Encoded();
+			ret.bytes = bytes;
+			ret.length = bytes.length;
+			return ret;
+		}
+
+		/**
+		 * @return An encoded message with its own array.
+		 */
+		public Encoded copy() {
+			byte[] b = new byte[length];
+			System.arraycopy(bytes, 0, b, 0, length);
+			Encoded ret = make(b);
+			ret.type = type;
+			ret.expansion = expansion;
+			return ret;
+		}
+	}
+
+	/**
+	 * The whole control state of a player, sent over UDP each client tick (see {@link InputChannel}).<br>
+	 * Carries the last few states too, newest first, so a lost packet loses nothing.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class PlayerInput {
+		/**
+		 * The controlled entity
+		 */
+		public String		entityID;
+		/**
+		 * The sequence of the newest state. The state i is sequence - i.
+		 */
+		public int			sequence;
+		/**
+		 * The pressed buttons of each state, one bit each. See {@link InputChannel#LEFT}.
+		 */
+		public int[]		buttons;
+		/**
+		 * The analog axes of each state, from -1 to 1
+		 */
+		public float[][]	axes;
+
+		public static PlayerInput make(String entityID, int sequence, int[] buttons, float[][] axes) {
+			PlayerInput ret = new PlayerInput();
+			ret.entityID = entityID;
+			ret.sequence = sequence;
+			ret.buttons = buttons;
+			ret.axes = axes;
+			return ret;
+		}
+	}
+
+	/**
+	 * A message of a {@link ReliableChannel}, numbered to be acknowledged and ordered.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class Reliable {
+		public int		sequence;
+		/**
+		 * Any registered message, or an {@link Encoded} one
+		 */
+		public Object	message;
+
+		public static Reliable make(int sequence, Object message) {
+			Reliable ret = new Reliable();
+			ret.sequence = sequence;
+			ret.message = message;
+			return ret;
+		}
+	}
+
+	/**
+	 * Acknowledges messages of a {@link ReliableChannel}.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class ReliableAck {
+		/**
+		 * The newest message that arrived
+		 */
+		public int	ack;
+		/**
+		 * Bit i set: message ack - 1 - i arrived too
+		 */
+		public int	bits;
+		/**
+		 * All messages up to this one arrived
+		 */
+		public int	delivered;
+
+		public static ReliableAck make(int ack, int bits, int delivered) {
+			ReliableAck ret = new ReliableAck();
+			ret.ack = ack;
+			ret.bits = bits;
+			ret.delivered = delivered;
+			return ret;
+		}
+	}
+
+	/**
+	 * The client tells the server the last snapshot it received.<br>
+	 * The server makes the next snapshots as deltas against it.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class SnapshotAck {
+		public int	sequence;
+
+		public static SnapshotAck make(int sequence) {
+			SnapshotAck ret = new SnapshotAck();
+			ret.sequence = sequence;
+			return ret;
+		}
 	}
 
 	/**
@@ -118,10 +366,20 @@ public class Messaging {
 	 */
 	public static class Login {
 		public Player	p;
+		/**
+		 * The {@link NWTypeRegistry#checksum()} of the client
+		 */
+		public int		entityTypes;
+		/**
+		 * The {@link NWFields#checksum()} of the client
+		 */
+		public int		fields;
 
 		public static Login make(Player p) {
 			Login log = new Login();
 			log.p = p;
+			log.entityTypes = NWTypeRegistry.checksum();
+			log.fields = NWFields.checksum();
 			return log;
 		}
 	}
@@ -152,23 +410,32 @@ public class Messaging {
 	/**
 	 * The server will send this to each player after a sucessful login.<br>
 	 * This message contains a package with information to create all entities<br>
-	 * currently on the server.
+	 * currently on the server. Big worlds come in many pages, see {@link JoinStream}.
 	 * 
 	 * @author Lucas M Carvalhaes
 	 * 
 	 */
 	public static class EntitiesOnTheServer {
 		public HashMap<HashMap<String, Object>, String>	allEntitiesOnServer;
+		/**
+		 * true on the last page
+		 */
+		public boolean									last	= true;
 
 		public static EntitiesOnTheServer make(HashMap<HashMap<String, Object>, String> allEnts) {
+			return make(allEnts, true);
+		}
+
+		public static EntitiesOnTheServer make(HashMap<HashMap<String, Object>, String> allEnts, boolean last) {
 			EntitiesOnTheServer inst = new EntitiesOnTheServer();
 			inst.allEntitiesOnServer = allEnts;
+			inst.last = last;
 			return inst;
 		}
 	}
 
 	/**
-	 * Message the player his login was invalid
+	 * Message the player his login was invalid, he is already logged. Other refusals are a {@link LoginRefused}.
 	 * 
 	 * @author Lucas M Carvalhaes
 	 * 
@@ -198,7 +465,9 @@ public class Messaging {
 
 	/**
 	 * The server pushes news each simulation.<br>
-	 * This only includes update messages.
+	 * This only includes update messages.<br>
+	 * Big snapshots are split in chunks with the same sequence and baseline. Each chunk has<br>
+	 * different entities and can be applied on its own.
 	 * 
 	 * @author Lucas M Carvalhaes
 	 * 
@@ -209,17 +478,59 @@ public class Messaging {
 		 */
 		public long										timestamp;
 		/**
-		 * A map that maps the entity ID to its update message
+		 * The sequence number of this snapshot. Grows by one each snapshot.
+		 */
+		public int										sequence;
+		/**
+		 * The sequence of the snapshot the deltas were made against. -1 means full messages.
+		 */
+		public int										baseline;
+		/**
+		 * The index of this chunk
+		 */
+		public int										chunk	= 0;
+		/**
+		 * How many chunks this snapshot was split in
+		 */
+		public int										chunks	= 1;
+		/**
+		 * The sequence of the last input of this player the server got, for the client prediction.<br>
+		 * See {@link ControlShip#sequence}.
+		 */
+		public int										lastInput	= 0;
+		/**
+		 * The last message of the {@link ReliableChannel} sent to this player before this snapshot.<br>
+		 * The client applies the snapshot only after it got that message. 0 for none.
+		 */
+		public int										reliable	= 0;
+		/**
+		 * A map that maps the entity ID to its update message (or delta, see {@link SnapshotDelta})
 		 */
 		public HashMap<String, HashMap<String, Object>>	updateMessages;
+		/**
+		 * Read side only. How many entities had a network ID this side doesn't know yet. They are left out.
+		 */
+		public int										unresolved	= 0;
 
-		public static Snapshot make(long stamp, HashMap<String, HashMap<String, Object>> updateMessages) {
+		public static Snapshot make(int sequence, int baseline, long stamp,
+				HashMap<String, HashMap<String, Object>> updateMessages) {
 			Snapshot ret = new Snapshot();
+			ret.sequence = sequence;
+			ret.baseline = baseline;
 			ret.timestamp = stamp;
 			ret.updateMessages = updateMessages;
 
 			return ret;
 		}
+
+		public static Snapshot make(int sequence, int baseline, int chunk, int chunks, long stamp,
+				HashMap<String, HashMap<String, Object>> updateMessages) {
+			Snapshot ret = make(sequence, baseline, stamp, updateMessages);
+			ret.chunk = chunk;
+			ret.chunks = chunks;
+
+			return ret;
+		}
 	}
 
 	/**
@@ -263,6 +574,22 @@ public class Messaging {
 		}
 	}
 
+	/**
+	 * Message the player his login was refused, and why. The server closes the connection after it.
+	 * 
+	 * @author Lucas M Carvalhaes
+	 * 
+	 */
+	public static class LoginRefused {
+		public String	reason;
+
+		public static LoginRefused make(String reason) {
+			LoginRefused ret = new LoginRefused();
+			ret.reason = reason;
+			return ret;
+		}
+	}
+
 	/**
 	 * A message generated when a player is dropped from the server.
 	 * 
@@ -0,0 +1,61 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.nio.ByteBuffer;
+
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import com.lucascarvalhaes.centurion.networking.Messaging.Encoded;
+import com.lucascarvalhaes.centurion.networking.Messaging.Reliable;
+import com.lucascarvalhaes.centurion.networking.compression.CompressedSerializer;
+
+/**
+ * The KryoNet serialization, counting the bytes of each message written and read in the<br>
+ * {@link ServerMetrics}, by connection and message type. The bytes are the ones that go on the<br>
+ * wire; the raw bytes add what compression saved.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class MeteredSerialization extends KryoSerialization {
+
+	private final ServerMetrics	metrics;
+
+	public MeteredSerialization(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public synchronized void write(Connection connection, ByteBuffer buffer, Object object) {
+		int start = buffer.position();
+		CompressedSerializer.takeExpansion(getKryo());
+		super.write(connection, buffer, object);
+		int bytes = buffer.position() - start;
+		metrics.sent(connection == null ? -1 : connection.getID(), typeOf(object), bytes,
+				bytes + CompressedSerializer.takeExpansion(getKryo()));
+	}
+
+	@Override
+	public synchronized Object read(Connection connection, ByteBuffer buffer) {
+		int start = buffer.position();
+		CompressedSerializer.takeExpansion(getKryo());
+		Object object = super.read(connection, buffer);
+		int bytes = buffer.position() - start;
+		metrics.received(connection == null ? -1 : connection.getID(), typeOf(object), bytes,
+				bytes + CompressedSerializer.takeExpansion(getKryo()));
+		return object;
+	}
+
+	/**
+	 * @return The name messages are counted under. Encoded messages count as what they encode,<br>
+	 *         reliable ones as "Reliable" and what they carry.
+	 */
+	public static String typeOf(Object object) {
+		if (object == null)
+			return "null";
+		if (object instanceof Encoded && ((Encoded) object).type != null)
+			return ((Encoded) object).type;
+		if (object instanceof Reliable)
+			return "Reliable " + typeOf(((Reliable) object).message);
+		return object.getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,526 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
+import com.lucascarvalhaes.centurion.networking.Messaging.Encoded;
+import com.lucascarvalhaes.centurion.networking.Messaging.EntitiesOnTheServer;
+import com.lucascarvalhaes.centurion.networking.Messaging.NewEntities;
+import com.lucascarvalhaes.centurion.networking.Messaging.PlayerInput;
+import com.lucascarvalhaes.centurion.networking.Messaging.Reliable;
+import com.lucascarvalhaes.centurion.networking.Messaging.RemoveEntities;
+import com.lucascarvalhaes.centurion.networking.Messaging.Snapshot;
+import com.lucascarvalhaes.centurion.networking.compression.CompressedSerializer;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWFieldType;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWFields;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWTypeRegistry;
+
+/**
+ * Compact serialization of entity messages.<br>
+ * Each propriety registered in {@link NWFields} is written as a varint ID followed by a typed<br>
+ * value: no key string and no class tag. Unregistered proprieties (or values of an unexpected type)<br>
+ * fall back to the key string and a class tagged object.<br>
+ * Positions, sizes and angles are quantized by the current {@link Quantizer}.<br>
+ * Entities are written by their {@link NetworkIDTable} ID when the kryo has a table.<br>
+ * The nested serializers write the messages that carry entity messages.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NWMessageSerializer {
+
+	/**
+	 * Writes an entity message.
+	 */
+	public static void writeMessage(Kryo kryo, Output output, HashMap<String, Object> msg) {
+		writeMessage(kryo, output, msg, null);
+	}
+
+	/**
+	 * Writes an entity message without one of its keys.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void writeMessage(Kryo kryo, Output output, HashMap<String, Object> msg, String skip) {
+		Quantizer quantizer = Quantizer.get();
+		output.writeInt(skip != null && msg.containsKey(skip) ? msg.size() - 1 : msg.size(), true);
+		for (Entry<String, Object> e : msg.entrySet()) {
+			if (e.getKey().equals(skip))
+				continue;
+			Object value = e.getValue();
+			int id = NWFields.idOf(e.getKey());
+			NWFieldType type = NWFields.typeOf(id);
+
+			// Unknown or not what we expected
+			if (type == null || !fits(type, value)) {
+				output.writeInt(NWFields.UNKNOWN, true);
+				output.writeString(e.getKey());
+				kryo.writeClassAndObject(output, value);
+				continue;
+			}
+
+			output.writeInt(id, true);
+			switch (type) {
+				case STRING:
+					output.writeString((String) value);
+					break;
+				case INT:
+					output.writeInt((Integer) value, false);
+					break;
+				case UINT:
+					output.writeInt((Integer) value, true);
+					break;
+				case LONG:
+					output.writeLong((Long) value, false);
+					break;
+				case FLOAT:
+					output.writeFloat((Float) value);
+					break;
+				case BOOLEAN:
+					output.writeBoolean((Boolean) value);
+					break;
+				case VECTOR:
+					output.writeFloat(((Vector2) value).x);
+					output.writeFloat(((Vector2) value).y);
+					break;
+				case POSITION:
+					quantizer.writePosition(output, (Vector2) value);
+					break;
+				case SIZE:
+					quantizer.writeSize(output, (Vector2) value);
+					break;
+				case ANGLE:
+					quantizer.writeAngle(output, (Float) value);
+					break;
+				case MAP:
+					writeMessage(kryo, output, (HashMap<String, Object>) value);
+					break;
+				case STRING_LIST:
+					ArrayList<String> list = (ArrayList<String>) value;
+					output.writeInt(list.size(), true);
+					for (String s : list)
+						output.writeString(s);
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Reads an entity message.
+	 */
+	public static HashMap<String, Object> readMessage(Kryo kryo, Input input) {
+		Quantizer quantizer = Quantizer.get();
+		int size = input.readInt(true);
+		HashMap<String, Object> msg = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			int id = input.readInt(true);
+			if (id == NWFields.UNKNOWN) {
+				String key = input.readString();
+				msg.put(key, kryo.readClassAndObject(input));
+				continue;
+			}
+
+			String key = NWFields.keyOf(id);
+			switch (NWFields.typeOf(id)) {
+				case STRING:
+					msg.put(key, input.readString());
+					break;
+				case INT:
+					msg.put(key, input.readInt(false));
+					break;
+				case UINT:
+					msg.put(key, input.readInt(true));
+					break;
+				case LONG:
+					msg.put(key, input.readLong(false));
+					break;
+				case FLOAT:
+					msg.put(key, input.readFloat());
+					break;
+				case BOOLEAN:
+					msg.put(key, input.readBoolean());
+					break;
+				case VECTOR:
+					msg.put(key, new Vector2(input.readFloat(), input.readFloat()));
+					break;
+				case POSITION:
+					msg.put(key, quantizer.readPosition(input));
+					break;
+				case SIZE:
+					msg.put(key, quantizer.readSize(input));
+					break;
+				case ANGLE:
+					msg.put(key, quantizer.readAngle(input));
+					break;
+				case MAP:
+					msg.put(key, readMessage(kryo, input));
+					break;
+				case STRING_LIST:
+					int n = input.readInt(true);
+					ArrayList<String> list = new ArrayList<>(n);
+					for (int j = 0; j < n; j++)
+						list.add(input.readString());
+					msg.put(key, list);
+					break;
+			}
+		}
+		return msg;
+	}
+
+	/**
+	 * @return true if the value can be written as the type.
+	 */
+	private static boolean fits(NWFieldType type, Object value) {
+		switch (type) {
+			case STRING:
+				return value instanceof String;
+			case INT:
+			case UINT: // Negative values still work, they just take five bytes
+				return value instanceof Integer;
+			case LONG:
+				return value instanceof Long;
+			case FLOAT:
+			case ANGLE:
+				return value instanceof Float;
+			case BOOLEAN:
+				return value instanceof Boolean;
+			case VECTOR:
+			case POSITION:
+			case SIZE:
+				return value instanceof Vector2;
+			case MAP:
+				return value instanceof HashMap;
+			case STRING_LIST:
+				return value instanceof ArrayList;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes a map CreateMessage -> ClassName.<br>
+	 * Classes in the {@link NWTypeRegistry} go by type ID, the others by name after a 0.
+	 */
+	static void writeCreateMessages(Kryo kryo, Output output, HashMap<HashMap<String, Object>, String> msgs) {
+		output.writeInt(msgs.size(), true);
+		for (Entry<HashMap<String, Object>, String> e : msgs.entrySet()) {
+			int typeID = NWTypeRegistry.idOf(e.getValue());
+			output.writeInt(typeID, true);
+			if (typeID == NWTypeRegistry.NONE)
+				output.writeString(e.getValue());
+			writeMessage(kryo, output, e.getKey());
+		}
+	}
+
+	/**
+	 * Reads a map CreateMessage -> ClassName.
+	 */
+	static HashMap<HashMap<String, Object>, String> readCreateMessages(Kryo kryo, Input input) {
+		int size = input.readInt(true);
+		HashMap<HashMap<String, Object>, String> msgs = new HashMap<>(size * 2);
+		for (int i = 0; i < size; i++) {
+			int typeID = input.readInt(true);
+			String className = typeID == NWTypeRegistry.NONE ? input.readString() : NWTypeRegistry.nameOf(typeID);
+			if (className == null)
+				throw new KryoException("Unknown entity type ID " + typeID + ", register the same types on both sides");
+			msgs.put(readMessage(kryo, input), className);
+		}
+		return msgs;
+	}
+
+	/**
+	 * Entities go by "entityID@ownerID" (see {@link NWEntity#networkID(String, String)}).
+	 * 
+	 * @return The entity ID part of a networked ID.
+	 */
+	private static String idInKey(String key) {
+		int at = key.indexOf('@');
+		return at < 0 ? key : key.substring(0, at);
+	}
+
+	/*
+	 * Serializers
+	 */
+
+	public static class SnapshotSerializer extends Serializer<Snapshot> {
+		@Override
+		public void write(Kryo kryo, Output output, Snapshot snap) {
+			output.writeLong(snap.timestamp);
+			output.writeInt(snap.sequence, true);
+			// -1 for full snapshots
+			output.writeInt(snap.baseline + 1, true);
+			output.writeInt(snap.chunk, true);
+			output.writeInt(snap.chunks, true);
+			output.writeInt(snap.lastInput, true);
+			output.writeInt(snap.reliable, true);
+			output.writeInt(snap.updateMessages.size(), true);
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			for (Entry<String, HashMap<String, Object>> e : snap.updateMessages.entrySet()) {
+				int id = table == null ? NetworkIDTable.NONE : table.idOf(e.getKey());
+				// The ID string inside the message is in the key, no need to send it
+				boolean hasID = idInKey(e.getKey()).equals(e.getValue().get(SnapshotDelta.ID));
+				output.writeInt(id << 1 | (hasID ? 1 : 0), true);
+				if (id == NetworkIDTable.NONE)
+					output.writeString(e.getKey());
+				writeMessage(kryo, output, e.getValue(), hasID ? SnapshotDelta.ID : null);
+			}
+		}
+
+		@Override
+		public Snapshot read(Kryo kryo, Input input, Class<Snapshot> type) {
+			long stamp = input.readLong();
+			int sequence = input.readInt(true);
+			int baseline = input.readInt(true) - 1;
+			int chunk = input.readInt(true);
+			int chunks = input.readInt(true);
+			int lastInput = input.readInt(true);
+			int reliable = input.readInt(true);
+			int size = input.readInt(true);
+			HashMap<String, HashMap<String, Object>> msgs = new HashMap<>(size * 2);
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			int unresolved = 0;
+			for (int i = 0; i < size; i++) {
+				int header = input.readInt(true);
+				int netID = header >>> 1;
+				String id = netID == NetworkIDTable.NONE ? input.readString() : table == null ? null : table
+						.entityOf(netID);
+				HashMap<String, Object> msg = readMessage(kryo, input);
+				// Created on the server but its create message didn't get here yet
+				if (id == null) {
+					unresolved++;
+					continue;
+				}
+				if ((header & 1) != 0)
+					msg.put(SnapshotDelta.ID, idInKey(id));
+				msgs.put(id, msg);
+			}
+			Snapshot snap = Snapshot.make(sequence, baseline, chunk, chunks, stamp, msgs);
+			snap.unresolved = unresolved;
+			snap.lastInput = lastInput;
+			snap.reliable = reliable;
+			return snap;
+		}
+	}
+
+	/**
+	 * Removed entities with network IDs go as sorted ranges of IDs. Entities without go as strings.
+	 */
+	public static class RemoveEntitiesSerializer extends Serializer<RemoveEntities> {
+		@Override
+		public void write(Kryo kryo, Output output, RemoveEntities msg) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			ArrayList<Integer> ids = new ArrayList<>();
+			ArrayList<String> names = new ArrayList<>();
+			for (String e : msg.removedEntities) {
+				int id = table == null ? NetworkIDTable.NONE : table.idOf(e);
+				if (id == NetworkIDTable.NONE)
+					names.add(e);
+				else
+					ids.add(id);
+			}
+			Collections.sort(ids);
+
+			// Ranges as (gap from the last range, length - 1)
+			ArrayList<int[]> ranges = new ArrayList<>();
+			for (int id : ids) {
+				int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+				if (last != null && last[1] + 1 == id)
+					last[1] = id;
+				else if (last == null || last[1] != id)
+					ranges.add(new int[] { id, id });
+			}
+			output.writeInt(ranges.size(), true);
+			int end = 0;
+			for (int[] range : ranges) {
+				output.writeInt(range[0] - end, true);
+				output.writeInt(range[1] - range[0], true);
+				end = range[1];
+			}
+			output.writeInt(names.size(), true);
+			for (String name : names)
+				output.writeString(name);
+		}
+
+		@Override
+		public RemoveEntities read(Kryo kryo, Input input, Class<RemoveEntities> type) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			ArrayList<String> removed = new ArrayList<>();
+			int ranges = input.readInt(true);
+			int end = 0;
+			for (int i = 0; i < ranges; i++) {
+				int start = end + input.readInt(true);
+				end = start + input.readInt(true);
+				for (int id = start; id <= end; id++) {
+					String e = table == null ? null : table.entityOf(id);
+					// Never heard of it, nothing to remove
+					if (e != null)
+						removed.add(e);
+				}
+			}
+			int names = input.readInt(true);
+			for (int i = 0; i < names; i++)
+				removed.add(input.readString());
+			return RemoveEntities.make(removed);
+		}
+	}
+
+	/**
+	 * The controlled entity goes by network ID when it has one. The table knows it as<br>
+	 * entity@owner, the message carries the entity ID alone.
+	 */
+	public static class ControlShipSerializer extends Serializer<ControlShip> {
+		@Override
+		public void write(Kryo kryo, Output output, ControlShip msg) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			int id = table == null || msg.entityID == null ? NetworkIDTable.NONE : table.idOf(NWEntity.networkID(
+					msg.entityID, msg.ownerID));
+			output.writeInt(id, true);
+			if (id == NetworkIDTable.NONE)
+				output.writeString(msg.entityID);
+			output.writeString(msg.ownerID);
+			output.writeString(msg.dir);
+			output.writeBoolean(msg.pressed);
+			output.writeInt(msg.sequence, true);
+		}
+
+		@Override
+		public ControlShip read(Kryo kryo, Input input, Class<ControlShip> type) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			int id = input.readInt(true);
+			String entityID = id == NetworkIDTable.NONE ? input.readString() : table == null ? null : table
+					.entityOf(id);
+			if (id != NetworkIDTable.NONE && entityID != null)
+				entityID = idInKey(entityID);
+			String ownerID = input.readString();
+			String dir = input.readString();
+			boolean pressed = input.readBoolean();
+			int sequence = input.readInt(true);
+			return ControlShip.make(ownerID, entityID, dir, pressed, sequence);
+		}
+	}
+
+	/**
+	 * The entity goes by network ID. Axes go as shorts. An older state that is the same as the<br>
+	 * state after it is a single byte.
+	 */
+	public static class PlayerInputSerializer extends Serializer<PlayerInput> {
+		private static final float	AXIS_SCALE	= Short.MAX_VALUE;
+
+		@Override
+		public void write(Kryo kryo, Output output, PlayerInput msg) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			int id = table == null || msg.entityID == null ? NetworkIDTable.NONE : table.idOf(msg.entityID);
+			output.writeInt(id, true);
+			if (id == NetworkIDTable.NONE)
+				output.writeString(msg.entityID);
+			output.writeInt(msg.sequence, true);
+			output.writeByte(msg.buttons.length);
+			for (int i = 0; i < msg.buttons.length; i++) {
+				if (i > 0 && msg.buttons[i] == msg.buttons[i - 1] && Arrays.equals(msg.axes[i], msg.axes[i - 1])) {
+					output.writeBoolean(true);
+					continue;
+				}
+				if (i > 0)
+					output.writeBoolean(false);
+				output.writeInt(msg.buttons[i], true);
+				output.writeByte(msg.axes[i].length);
+				for (float axis : msg.axes[i])
+					output.writeShort(Math.round(Math.max(-1, Math.min(1, axis)) * AXIS_SCALE));
+			}
+		}
+
+		@Override
+		public PlayerInput read(Kryo kryo, Input input, Class<PlayerInput> type) {
+			NetworkIDTable table = NetworkIDTable.of(kryo);
+			int id = input.readInt(true);
+			String entityID = id == NetworkIDTable.NONE ? input.readString() : table == null ? null : table
+					.entityOf(id);
+			int sequence = input.readInt(true);
+			int count = input.readByte() & 0xFF;
+			int[] buttons = new int[count];
+			float[][] axes = new float[count][];
+			for (int i = 0; i < count; i++) {
+				if (i > 0 && input.readBoolean()) {
+					buttons[i] = buttons[i - 1];
+					axes[i] = axes[i - 1];
+					continue;
+				}
+				buttons[i] = input.readInt(true);
+				axes[i] = new float[input.readByte() & 0xFF];
+				for (int a = 0; a < axes[i].length; a++)
+					axes[i][a] = input.readShort() / AXIS_SCALE;
+			}
+			return PlayerInput.make(entityID, sequence, buttons, axes);
+		}
+	}
+
+	/**
+	 * The sequence and the message with its class.
+	 */
+	public static class ReliableSerializer extends Serializer<Reliable> {
+		@Override
+		public void write(Kryo kryo, Output output, Reliable msg) {
+			output.writeInt(msg.sequence, true);
+			kryo.writeClassAndObject(output, msg.message);
+		}
+
+		@Override
+		public Reliable read(Kryo kryo, Input input, Class<Reliable> type) {
+			int sequence = input.readInt(true);
+			return Reliable.make(sequence, kryo.readClassAndObject(input));
+		}
+	}
+
+	/**
+	 * Writes the bytes of an {@link Encoded} message as they are. Reads the message inside.
+	 */
+	public static class EncodedSerializer extends Serializer<Object> {
+		@Override
+		public void write(Kryo kryo, Output output, Object msg) {
+			Encoded encoded = (Encoded) msg;
+			output.writeBytes(encoded.bytes, 0, encoded.length);
+			// Compressed on another kryo
+			CompressedSerializer.addExpansion(kryo, encoded.expansion);
+		}
+
+		@Override
+		public Object read(Kryo kryo, Input input, Class<Object> type) {
+			return kryo.readClassAndObject(input);
+		}
+	}
+
+	public static class NewEntitiesSerializer extends Serializer<NewEntities> {
+		@Override
+		public void write(Kryo kryo, Output output, NewEntities msg) {
+			writeCreateMessages(kryo, output, msg.newEntities);
+		}
+
+		@Override
+		public NewEntities read(Kryo kryo, Input input, Class<NewEntities> type) {
+			return NewEntities.make(readCreateMessages(kryo, input));
+		}
+	}
+
+	public static class EntitiesOnTheServerSerializer extends Serializer<EntitiesOnTheServer> {
+		@Override
+		public void write(Kryo kryo, Output output, EntitiesOnTheServer msg) {
+			writeCreateMessages(kryo, output, msg.allEntitiesOnServer);
+			output.writeBoolean(msg.last);
+		}
+
+		@Override
+		public EntitiesOnTheServer read(Kryo kryo, Input input, Class<EntitiesOnTheServer> type) {
+			HashMap<HashMap<String, Object>, String> ents = readCreateMessages(kryo, input);
+			return EntitiesOnTheServer.make(ents, input.readBoolean());
+		}
+	}
+}
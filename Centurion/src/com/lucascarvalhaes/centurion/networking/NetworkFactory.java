@@ -3,13 +3,24 @@ package com.lucascarvalhaes.centurion.networking;
 import java.io.IOException;
 
 import com.esotericsoftware.kryonet.Client;
+import com.esotericsoftware.kryonet.KryoSerialization;
+import com.esotericsoftware.kryonet.Serialization;
 import com.esotericsoftware.kryonet.Server;
 
 public class NetworkFactory {
 
+	/**
+	 * Object buffer of the clients. No message to a client can be bigger.
+	 */
+	public static final int	CLIENT_OBJECT_BUFFER	= 4096;
+
 	public static Server getServer(int tcpPort, int udpPort){
+		return getServer(tcpPort, udpPort, new KryoSerialization());
+	}
+
+	public static Server getServer(int tcpPort, int udpPort, Serialization serialization){
 		// Make the server - double the default size: 16384 / 2048
-		Server ret = new Server(32768, 4096);
+		Server ret = new Server(32768, 4096, serialization);
 
 		//Make it work
 		try {
@@ -26,6 +37,6 @@ public class NetworkFactory {
 	public static Client getClient() {
 		// Default write buffer size: 8192
 		// Default object buffer size: 2048
-		return new Client(16384, 4096);
+		return new Client(16384, CLIENT_OBJECT_BUFFER);
 	}
 }
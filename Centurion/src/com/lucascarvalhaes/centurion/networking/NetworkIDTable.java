@@ -0,0 +1,125 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Small integer IDs for the entities of a session, so messages don't carry the entity ID strings.<br>
+ * The server assigns an ID when an entity is created and sends it once, in the create message<br>
+ * (key "nw_netID"). Clients learn it from there. IDs are never reused in a session, so a late<br>
+ * message can't be applied to the wrong entity.<br>
+ * Each endpoint keeps its table in its kryo context, where the serializers find it.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NetworkIDTable {
+
+	/**
+	 * The create message key with the network ID
+	 */
+	public static final String							KEY			= "nw_netID";
+	/**
+	 * The ID of entities with no network ID. The ID string is sent instead.
+	 */
+	public static final int								NONE		= 0;
+
+	private static final String							CONTEXT_KEY	= "centurion.netIDs";
+
+	private final ConcurrentHashMap<String, Integer>	ids			= new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, String>	entities	= new ConcurrentHashMap<>();
+	private final AtomicInteger							next		= new AtomicInteger(NONE + 1);
+
+	/**
+	 * Puts the table where the serializers of this kryo find it.
+	 */
+	@SuppressWarnings("unchecked")
+	public void install(Kryo kryo) {
+		kryo.getContext().put(CONTEXT_KEY, this);
+	}
+
+	/**
+	 * @return The table of this kryo, or null if it has none.
+	 */
+	@SuppressWarnings("unchecked")
+	public static NetworkIDTable of(Kryo kryo) {
+		return (NetworkIDTable) kryo.getContext().get(CONTEXT_KEY);
+	}
+
+	/*
+	 * SERVER
+	 */
+
+	/**
+	 * Gives an entity a network ID. Server only.
+	 *
+	 * @return The new ID, or the one it already has.
+	 */
+	public int assign(String entityID) {
+		Integer id = ids.get(entityID);
+		if (id != null)
+			return id;
+		id = next.getAndIncrement();
+		ids.put(entityID, id);
+		entities.put(id, entityID);
+		return id;
+	}
+
+	/*
+	 * CLIENT
+	 */
+
+	/**
+	 * Learns the ID of an entity from its create message. Client only.
+	 */
+	public void put(int id, String entityID) {
+		ids.put(entityID, id);
+		entities.put(id, entityID);
+	}
+
+	/*
+	 * BOTH
+	 */
+
+	/**
+	 * Forgets an entity.
+	 */
+	public void release(String entityID) {
+		Integer id = ids.remove(entityID);
+		if (id != null)
+			entities.remove(id);
+	}
+
+	/**
+	 * @return The network ID of an entity or {@link #NONE}.
+	 */
+	public int idOf(String entityID) {
+		Integer id = ids.get(entityID);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * @return The entity with a network ID, or null if unknown.
+	 */
+	public String entityOf(int id) {
+		return entities.get(id);
+	}
+
+	/**
+	 * Forgets all the entities, as on a new session.
+	 */
+	public void clear() {
+		ids.clear();
+		entities.clear();
+		next.set(NONE + 1);
+	}
+
+	/**
+	 * @return How many entities have an ID.
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
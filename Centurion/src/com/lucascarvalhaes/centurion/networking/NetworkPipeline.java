@@ -0,0 +1,116 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.lucascarvalhaes.centurion.networking.Messaging.Encoded;
+
+/**
+ * Runs the network stage of a {@link GameServer} on its own thread.<br>
+ * The tick thread publishes a {@link ServerTick} and goes on simulating. This thread builds the<br>
+ * snapshots, serializes and compresses them with its own {@link MessageEncoder} and sends the bytes<br>
+ * as {@link Encoded} messages, so the kryo of the server only copies them.<br>
+ * Up to {@link #DEFAULT_BUFFERS} ticks wait for this thread. When it falls further behind, the tick<br>
+ * thread waits for it.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NetworkPipeline {
+
+	/**
+	 * How many published ticks can wait, besides the one being sent
+	 */
+	public static final int						DEFAULT_BUFFERS	= 2;
+
+	private final GameServer					server;
+	private final ArrayBlockingQueue<ServerTick>	ticks;
+	private Thread								thread;
+	private volatile boolean					running			= false;
+	private final AtomicLong					stalls			= new AtomicLong();
+
+	public NetworkPipeline(GameServer server) {
+		this(server, DEFAULT_BUFFERS);
+	}
+
+	/**
+	 * @param buffers
+	 *            How many published ticks can wait for this thread.
+	 */
+	public NetworkPipeline(GameServer server, int buffers) {
+		this.server = server;
+		ticks = new ArrayBlockingQueue<>(buffers);
+	}
+
+	/**
+	 * Starts the network thread.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (running) {
+					try {
+						server.sendTick(ticks.take());
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						// A bad tick must not stop the networking
+						e.printStackTrace();
+					}
+				}
+			}
+		}, "Centurion-network");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the network thread. Ticks still waiting are dropped.
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null)
+			thread.interrupt();
+		ticks.clear();
+	}
+
+	/**
+	 * Hands a tick to the network thread. Waits if it is too far behind.<br>
+	 * <b>The tick thread must not touch the tick after this.</b>
+	 */
+	public void publish(ServerTick tick) {
+		try {
+			if (!ticks.offer(tick)) {
+				stalls.incrementAndGet();
+				ticks.put(tick);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true when called from the network thread.
+	 */
+	public boolean isNetworkThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * @return How many ticks are waiting.
+	 */
+	public int getBacklog() {
+		return ticks.size();
+	}
+
+	/**
+	 * @return How many times the tick thread had to wait for this thread.
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+}
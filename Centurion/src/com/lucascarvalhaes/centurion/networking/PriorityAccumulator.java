@@ -0,0 +1,112 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * The send priority of each entity for one client.<br>
+ * Each tick an entity has something to send its priority grows. When it is sent it goes back to zero.<br>
+ * Snapshots are filled with the highest priorities first until the byte budget is spent, so<br>
+ * entities left out this tick are more likely to make it in the next one.<br>
+ * <b>Used only from the server networking tick.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class PriorityAccumulator {
+
+	/**
+	 * Bytes of a snapshot that are not entity messages: timestamp, sequences and count
+	 */
+	public static final int					SNAPSHOT_HEADER	= 24;
+
+	private final HashMap<String, Float>	accumulated		= new HashMap<>();
+
+	/**
+	 * Adds the priority of this tick to an entity.
+	 *
+	 * @return The accumulated priority.
+	 */
+	public float add(String id, float priority) {
+		Float old = accumulated.get(id);
+		float now = (old == null ? 0 : old) + priority;
+		accumulated.put(id, now);
+		return now;
+	}
+
+	/**
+	 * @return The accumulated priority of an entity.
+	 */
+	public float get(String id) {
+		Float p = accumulated.get(id);
+		return p == null ? 0 : p;
+	}
+
+	/**
+	 * Forgets the entities that are not in the collection anymore.
+	 */
+	public void retain(Collection<String> ids) {
+		accumulated.keySet().retainAll(ids);
+	}
+
+	/**
+	 * Picks the messages to send, highest priority first, until the budget is spent.<br>
+	 * Messages that don't fit are skipped and smaller ones after them still get a chance.<br>
+	 * The first message is always sent, so a single big entity can't block the others forever.<br>
+	 * Picked entities have their priority reset.
+	 *
+	 * @param candidates
+	 *            EntityID -> Message to send
+	 * @param budget
+	 *            The max bytes of the snapshot
+	 * @param kryo
+	 *            Used to measure the messages
+	 * @param scratch
+	 *            Used to measure the messages
+	 * @return The picked messages. EntityID -> Message
+	 */
+	public HashMap<String, HashMap<String, Object>> select(HashMap<String, HashMap<String, Object>> candidates,
+			int budget, Kryo kryo, Output scratch) {
+		ArrayList<String> ids = new ArrayList<>(candidates.keySet());
+		Collections.sort(ids, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Float.compare(get(b), get(a));
+			}
+		});
+
+		HashMap<String, HashMap<String, Object>> picked = new HashMap<>();
+		int left = budget - SNAPSHOT_HEADER;
+		for (String id : ids) {
+			int size = sizeOf(id, candidates.get(id), kryo, scratch);
+			if (size > left && picked.size() > 0)
+				continue;
+			left -= size;
+			picked.put(id, candidates.get(id));
+			accumulated.remove(id);
+		}
+		return picked;
+	}
+
+	/**
+	 * @return The bytes an entity message takes in a snapshot. The kryo must be prepared like the<br>
+	 *         one that sends it, with its {@link NetworkIDTable}.
+	 */
+	public static int sizeOf(String id, HashMap<String, Object> msg, Kryo kryo, Output scratch) {
+		scratch.clear();
+		// The ID goes like the snapshot serializer writes it
+		NetworkIDTable table = NetworkIDTable.of(kryo);
+		int netID = table == null ? NetworkIDTable.NONE : table.idOf(id);
+		scratch.writeInt(netID << 1, true);
+		if (netID == NetworkIDTable.NONE)
+			scratch.writeString(id);
+		NWMessageSerializer.writeMessage(kryo, scratch, msg);
+		return scratch.position();
+	}
+}
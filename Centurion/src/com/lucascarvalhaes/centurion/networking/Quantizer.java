@@ -0,0 +1,218 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import com.badlogic.gdx.math.Vector2;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Quantization of replicated vectors.<br>
+ * Positions inside the world bounds are written as integers with the configured precision,<br>
+ * packed bit by bit. Sizes are written the same way from zero up to a max size.<br>
+ * Angles (radians) are wrapped to one turn and written with a fixed number of bits.<br>
+ * Values outside the range are not clamped: they are flagged and written as full floats.<br>
+ * <b>Configure it with the same values on the server and on the clients, before connecting.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class Quantizer {
+
+	/**
+	 * The quantizer used by the message serializers
+	 */
+	private static volatile Quantizer	current	= new Quantizer(-16384, -16384, 16384, 16384, 1 / 64f, 4096, 1 / 16f);
+
+	private final float					minX, minY, maxX, maxY, precision;
+	private final float					maxSize, sizePrecision;
+	private final int					positionBits, sizeBits, angleBits;
+
+	/**
+	 * @param minX
+	 *            The left of the world
+	 * @param minY
+	 *            The bottom of the world
+	 * @param maxX
+	 *            The right of the world
+	 * @param maxY
+	 *            The top of the world
+	 * @param precision
+	 *            The smallest position step the clients will see
+	 * @param maxSize
+	 *            The biggest entity size
+	 * @param sizePrecision
+	 *            The smallest size step the clients will see
+	 */
+	public Quantizer(float minX, float minY, float maxX, float maxY, float precision, float maxSize,
+			float sizePrecision) {
+		this(minX, minY, maxX, maxY, precision, maxSize, sizePrecision, 12);
+	}
+
+	/**
+	 * @param angleBits
+	 *            Bits per angle. 12 bits is under a tenth of a degree.
+	 * @see #Quantizer(float, float, float, float, float, float, float)
+	 */
+	public Quantizer(float minX, float minY, float maxX, float maxY, float precision, float maxSize,
+			float sizePrecision, int angleBits) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.precision = precision;
+		this.maxSize = maxSize;
+		this.sizePrecision = sizePrecision;
+		this.angleBits = angleBits;
+		positionBits = bitsFor(Math.max(maxX - minX, maxY - minY) / precision);
+		sizeBits = bitsFor(maxSize / sizePrecision);
+		if (positionBits > 31 || sizeBits > 31 || angleBits < 1 || angleBits > 31)
+			throw new IllegalArgumentException("Too much precision for the range");
+	}
+
+	/**
+	 * @return The quantizer used by the message serializers.
+	 */
+	public static Quantizer get() {
+		return current;
+	}
+
+	/**
+	 * Replaces the quantizer used by the message serializers.
+	 */
+	public static void configure(Quantizer quantizer) {
+		current = quantizer;
+	}
+
+	/*
+	 * POSITIONS
+	 */
+
+	public void writePosition(Output output, Vector2 v) {
+		if (v.x < minX || v.x > maxX || v.y < minY || v.y > maxY) {
+			writeRaw(output, v);
+			return;
+		}
+		long packed = 1; // In range
+		packed |= quantize(v.x - minX, precision) << 1;
+		packed |= quantize(v.y - minY, precision) << (1 + positionBits);
+		writeBits(output, packed, 1 + positionBits * 2);
+	}
+
+	public Vector2 readPosition(Input input) {
+		long packed = readBits(input, 1 + positionBits * 2);
+		if ((packed & 1) == 0)
+			return readRaw(input);
+		long mask = (1L << positionBits) - 1;
+		return new Vector2(
+				minX + ((packed >>> 1) & mask) * precision,
+				minY + ((packed >>> (1 + positionBits)) & mask) * precision);
+	}
+
+	/*
+	 * SIZES
+	 */
+
+	public void writeSize(Output output, Vector2 v) {
+		if (v.x < 0 || v.x > maxSize || v.y < 0 || v.y > maxSize) {
+			writeRaw(output, v);
+			return;
+		}
+		long packed = 1; // In range
+		packed |= quantize(v.x, sizePrecision) << 1;
+		packed |= quantize(v.y, sizePrecision) << (1 + sizeBits);
+		writeBits(output, packed, 1 + sizeBits * 2);
+	}
+
+	public Vector2 readSize(Input input) {
+		long packed = readBits(input, 1 + sizeBits * 2);
+		if ((packed & 1) == 0)
+			return readRaw(input);
+		long mask = (1L << sizeBits) - 1;
+		return new Vector2(
+				((packed >>> 1) & mask) * sizePrecision,
+				((packed >>> (1 + sizeBits)) & mask) * sizePrecision);
+	}
+
+	/*
+	 * ANGLES
+	 */
+
+	public void writeAngle(Output output, float radians) {
+		double turns = radians / (2 * Math.PI);
+		turns -= Math.floor(turns);
+		long steps = 1L << angleBits;
+		writeBits(output, Math.round(turns * steps) % steps, angleBits);
+	}
+
+	public float readAngle(Input input) {
+		long value = 0;
+		for (int read = 0; read < angleBits; read += 8)
+			value |= (long) (input.readByte() & 0xFF) << read;
+		return (float) (value * 2 * Math.PI / (1L << angleBits));
+	}
+
+	/*
+	 * HELPERS
+	 */
+
+	/**
+	 * Out of range. The flag byte (0) then both floats.
+	 */
+	private void writeRaw(Output output, Vector2 v) {
+		output.writeByte(0);
+		output.writeFloat(v.x);
+		output.writeFloat(v.y);
+	}
+
+	/**
+	 * Out of range. The flag byte was read already, the floats follow.
+	 */
+	private Vector2 readRaw(Input input) {
+		return new Vector2(input.readFloat(), input.readFloat());
+	}
+
+	private static long quantize(float value, float step) {
+		return Math.round(value / step);
+	}
+
+	/**
+	 * Writes the lowest bits of value in as few bytes as possible, lowest byte first.
+	 */
+	private static void writeBits(Output output, long value, int bits) {
+		for (int written = 0; written < bits; written += 8) {
+			output.writeByte((byte) value);
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Reads bits written by {@link #writeBits(Output, long, int)}.<br>
+	 * Stops after the first byte if the in range flag is off.
+	 */
+	private static long readBits(Input input, int bits) {
+		long value = input.readByte() & 0xFF;
+		if ((value & 1) == 0)
+			return value;
+		for (int read = 8; read < bits; read += 8)
+			value |= (long) (input.readByte() & 0xFF) << read;
+		return value;
+	}
+
+	private static int bitsFor(float values) {
+		int bits = 1;
+		while ((1L << bits) <= (long) Math.ceil(values))
+			bits++;
+		return bits;
+	}
+
+	public int getPositionBits() {
+		return positionBits;
+	}
+
+	public int getSizeBits() {
+		return sizeBits;
+	}
+
+	public int getAngleBits() {
+		return angleBits;
+	}
+}
@@ -0,0 +1,218 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.lucascarvalhaes.centurion.networking.Messaging.Reliable;
+import com.lucascarvalhaes.centurion.networking.Messaging.ReliableAck;
+
+/**
+ * A reliable and ordered stream of messages over UDP, for one connection.<br>
+ * The sender numbers each message and keeps it until it is acknowledged, sending it again<br>
+ * when the acknowledgement takes longer than a round trip. The receiver acknowledges the last<br>
+ * sequence it got and, in a bitfield, which of the 32 before it it got too, so one<br>
+ * acknowledgement covers many messages and a lost one is covered by the next. It also has the<br>
+ * last message delivered, so older ones are acknowledged too.<br>
+ * Messages are delivered in order. Later ones wait for a lost one, but only the messages of<br>
+ * this channel wait: snapshots keep coming.<br>
+ * Each endpoint uses the sender half, the receiver half or both.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class ReliableChannel {
+
+	/**
+	 * The least time before sending a message again, in milliseconds
+	 */
+	public static final long				MIN_RESEND	= 50;
+	/**
+	 * How many messages before the last one the acknowledgement bitfield covers
+	 */
+	public static final int					ACK_BITS	= 32;
+
+	/**
+	 * A message sent and not acknowledged
+	 */
+	private static class Pending {
+		final Reliable	packet;
+		long			sentAt;
+		int				sends;
+
+		Pending(Reliable packet) {
+			this.packet = packet;
+		}
+	}
+
+	/*
+	 * Sender
+	 */
+
+	private final TreeMap<Integer, Pending>	pending		= new TreeMap<>();
+	private int								lastSent	= 0;
+	// Smoothed round trip time
+	private float							rtt			= 200;
+
+	/*
+	 * Receiver
+	 */
+
+	private final HashMap<Integer, Object>	waiting		= new HashMap<>();
+	private int								delivered	= 0;
+	private int								ack			= 0;
+	private int								ackBits		= 0;
+
+	/*
+	 * Testing
+	 */
+
+	private final Random					random		= new Random();
+	private float							simulatedLoss;
+
+	/*
+	 * SENDER
+	 */
+
+	/**
+	 * Numbers a message and keeps it until it is acknowledged.
+	 *
+	 * @return The packet to send now.
+	 */
+	public synchronized Reliable send(Object message, long now) {
+		Pending p = new Pending(Reliable.make(++lastSent, message));
+		p.sentAt = now;
+		p.sends = 1;
+		pending.put(p.packet.sequence, p);
+		return p.packet;
+	}
+
+	/**
+	 * @return The packets that took too long to be acknowledged, to be sent again now.
+	 */
+	public synchronized ArrayList<Reliable> resend(long now) {
+		ArrayList<Reliable> ret = new ArrayList<>();
+		for (Pending p : pending.values()) {
+			// Each resend waits longer, a link that is down is not flooded
+			long timeout = Math.max(MIN_RESEND, (long) (rtt * 1.5f)) << Math.min(p.sends - 1, 4);
+			if (now - p.sentAt >= timeout) {
+				p.sentAt = now;
+				p.sends++;
+				ret.add(p.packet);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Forgets the messages an acknowledgement covers.
+	 */
+	public synchronized void acked(ReliableAck msg, long now) {
+		Pending p = pending.remove(msg.ack);
+		// Only messages sent once tell the round trip time
+		if (p != null && p.sends == 1)
+			rtt += ((now - p.sentAt) - rtt) * 0.125f;
+		for (int i = 0; i < ACK_BITS; i++)
+			if ((msg.bits & (1 << i)) != 0)
+				pending.remove(msg.ack - 1 - i);
+		// Everything up to the delivered one arrived, even if too old for the bitfield
+		Iterator<Entry<Integer, Pending>> it = pending.entrySet().iterator();
+		while (it.hasNext() && it.next().getKey() <= msg.delivered)
+			it.remove();
+	}
+
+	/**
+	 * @return The sequence of the last message sent, 0 if none.
+	 */
+	public synchronized int getLastSent() {
+		return lastSent;
+	}
+
+	/**
+	 * @return How many messages were not acknowledged yet.
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return The smoothed round trip time in milliseconds.
+	 */
+	public synchronized float getRoundTripTime() {
+		return rtt;
+	}
+
+	/*
+	 * RECEIVER
+	 */
+
+	/**
+	 * Takes a packet that arrived.
+	 *
+	 * @return The messages that can be delivered now, in order. Empty if it was a duplicate or<br>
+	 *         an earlier one is missing.
+	 */
+	public synchronized ArrayList<Object> receive(Reliable packet) {
+		ArrayList<Object> ret = new ArrayList<>();
+		int seq = packet.sequence;
+		// Remember it for the acknowledgement
+		if (seq > ack) {
+			int shift = seq - ack;
+			ackBits = shift >= ACK_BITS ? 0 : ackBits << shift;
+			// The old last one goes in the bitfield
+			if (ack > 0 && shift <= ACK_BITS)
+				ackBits |= 1 << (shift - 1);
+			ack = seq;
+		} else if (seq < ack && ack - seq <= ACK_BITS) {
+			ackBits |= 1 << (ack - seq - 1);
+		}
+
+		if (seq <= delivered || waiting.containsKey(seq))
+			return ret;
+		waiting.put(seq, packet.message);
+		Object next;
+		while ((next = waiting.remove(delivered + 1)) != null) {
+			delivered++;
+			ret.add(next);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The acknowledgement of what arrived so far.
+	 */
+	public synchronized ReliableAck makeAck() {
+		return ReliableAck.make(ack, ackBits, delivered);
+	}
+
+	/**
+	 * @return The sequence of the last message delivered, 0 if none.
+	 */
+	public synchronized int getDelivered() {
+		return delivered;
+	}
+
+	/*
+	 * TESTING
+	 */
+
+	/**
+	 * Drops packets on purpose, to test over loopback.
+	 *
+	 * @param loss
+	 *            From 0 (none) to 1 (all)
+	 */
+	public synchronized void setSimulatedLoss(float loss) {
+		simulatedLoss = loss;
+	}
+
+	/**
+	 * @return true if the packet about to be sent should be dropped, see {@link #setSimulatedLoss(float)}.
+	 */
+	public synchronized boolean lose() {
+		return simulatedLoss > 0 && random.nextFloat() < simulatedLoss;
+	}
+}
@@ -0,0 +1,412 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the server measures about itself: how long the ticks and the network stage take, how<br>
+ * much each connection sends and receives of each message type, before and after compression,<br>
+ * and how full the queues are.<br>
+ * Updated from the tick, network and KryoNet threads. Read it from any thread, see {@link GameServer#getMetrics()}.<br>
+ * Counts since the last {@link #reset()}, so a reader that resets after each report gets rates.<br>
+ * {@link #dumpEvery(long, PrintStream)} prints and resets it periodically.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class ServerMetrics {
+
+	/**
+	 * The bytes and messages of one connection, or of one message type.<br>
+	 * Bytes are the ones on the wire, raw bytes the ones before compression.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public static class Counters {
+		public final AtomicLong	bytesSent			= new AtomicLong();
+		public final AtomicLong	rawBytesSent		= new AtomicLong();
+		public final AtomicLong	messagesSent		= new AtomicLong();
+		public final AtomicLong	bytesReceived		= new AtomicLong();
+		public final AtomicLong	rawBytesReceived	= new AtomicLong();
+		public final AtomicLong	messagesReceived	= new AtomicLong();
+
+		void sent(int bytes, int rawBytes) {
+			bytesSent.addAndGet(bytes);
+			rawBytesSent.addAndGet(rawBytes);
+			messagesSent.incrementAndGet();
+		}
+
+		void received(int bytes, int rawBytes) {
+			bytesReceived.addAndGet(bytes);
+			rawBytesReceived.addAndGet(rawBytes);
+			messagesReceived.incrementAndGet();
+		}
+
+		void add(Counters c) {
+			bytesSent.addAndGet(c.bytesSent.get());
+			rawBytesSent.addAndGet(c.rawBytesSent.get());
+			messagesSent.addAndGet(c.messagesSent.get());
+			bytesReceived.addAndGet(c.bytesReceived.get());
+			rawBytesReceived.addAndGet(c.rawBytesReceived.get());
+			messagesReceived.addAndGet(c.messagesReceived.get());
+		}
+
+		void reset() {
+			bytesSent.set(0);
+			rawBytesSent.set(0);
+			messagesSent.set(0);
+			bytesReceived.set(0);
+			rawBytesReceived.set(0);
+			messagesReceived.set(0);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("sent %d B (%d raw) in %d | received %d B (%d raw) in %d", bytesSent.get(),
+					rawBytesSent.get(), messagesSent.get(), bytesReceived.get(), rawBytesReceived.get(),
+					messagesReceived.get());
+		}
+	}
+
+	/**
+	 * Everything about one connection
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public static class Traffic extends Counters {
+		/**
+		 * Message type -> Counters
+		 */
+		public final ConcurrentHashMap<String, Counters>	types			= new ConcurrentHashMap<>();
+		/**
+		 * Reliable UDP messages sent again
+		 */
+		public final AtomicLong								resent			= new AtomicLong();
+		/**
+		 * Bytes waiting in the TCP write buffer, when last sampled
+		 */
+		public volatile int									writeBuffer;
+		/**
+		 * Reliable UDP messages not acknowledged, when last sampled
+		 */
+		public volatile int									reliablePending;
+
+		/**
+		 * @return The counters of a message type.
+		 */
+		public Counters typeOf(String type) {
+			Counters c = types.get(type);
+			if (c == null) {
+				c = new Counters();
+				Counters old = types.putIfAbsent(type, c);
+				if (old != null)
+					c = old;
+			}
+			return c;
+		}
+
+		@Override
+		void reset() {
+			super.reset();
+			types.clear();
+			resent.set(0);
+		}
+	}
+
+	private final ConcurrentHashMap<Integer, Traffic>	traffic	= new ConcurrentHashMap<>();
+	// Packets read before the server knew their connection, like the UDP ones
+	private final Traffic								unknown	= new Traffic();
+	private long										ticks, tickNanos, tickMax;
+	private long										stages, stageNanos, stageMax;
+	// Queues, when last sampled
+	private volatile int								inboundDepth, pipelineBacklog;
+	private volatile long								inboundDropped, pipelineStalls;
+	// Logins refused since the server started
+	private final AtomicLong							refusedLogins	= new AtomicLong();
+	private Timer										dumper;
+
+	/*
+	 * TIMING
+	 */
+
+	/**
+	 * A tick took this long.
+	 */
+	public synchronized void tick(long nanos) {
+		ticks++;
+		tickNanos += nanos;
+		tickMax = Math.max(tickMax, nanos);
+	}
+
+	/**
+	 * The network stage of a tick took this long.
+	 */
+	public synchronized void networkStage(long nanos) {
+		stages++;
+		stageNanos += nanos;
+		stageMax = Math.max(stageMax, nanos);
+	}
+
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * @return The average tick time in milliseconds.
+	 */
+	public synchronized float getAverageTickTime() {
+		return ticks == 0 ? 0 : tickNanos / (float) ticks / 1000000f;
+	}
+
+	/**
+	 * @return The longest tick time in milliseconds.
+	 */
+	public synchronized float getMaxTickTime() {
+		return tickMax / 1000000f;
+	}
+
+	/**
+	 * @return The average network stage time in milliseconds.
+	 */
+	public synchronized float getAverageNetworkTime() {
+		return stages == 0 ? 0 : stageNanos / (float) stages / 1000000f;
+	}
+
+	/**
+	 * @return The longest network stage time in milliseconds.
+	 */
+	public synchronized float getMaxNetworkTime() {
+		return stageMax / 1000000f;
+	}
+
+	/*
+	 * TRAFFIC
+	 */
+
+	/**
+	 * A message was written to a connection.
+	 *
+	 * @param connectionID
+	 *            The connection, or a negative number if unknown
+	 * @param type
+	 *            The message type
+	 * @param bytes
+	 *            The bytes on the wire
+	 * @param rawBytes
+	 *            The bytes before compression
+	 */
+	public void sent(int connectionID, String type, int bytes, int rawBytes) {
+		Traffic t = trafficOf(connectionID);
+		t.sent(bytes, rawBytes);
+		t.typeOf(type).sent(bytes, rawBytes);
+	}
+
+	/**
+	 * A message was read from a connection.
+	 *
+	 * @param connectionID
+	 *            The connection, or a negative number if unknown
+	 * @param type
+	 *            The message type
+	 * @param bytes
+	 *            The bytes on the wire
+	 * @param rawBytes
+	 *            The bytes after decompression
+	 */
+	public void received(int connectionID, String type, int bytes, int rawBytes) {
+		Traffic t = trafficOf(connectionID);
+		t.received(bytes, rawBytes);
+		t.typeOf(type).received(bytes, rawBytes);
+	}
+
+	/**
+	 * Forgets a connection that closed.
+	 */
+	public void removeConnection(int connectionID) {
+		traffic.remove(connectionID);
+	}
+
+	/**
+	 * @return The traffic of a connection, or of the packets of no known connection if negative.
+	 */
+	public Traffic trafficOf(int connectionID) {
+		if (connectionID < 0)
+			return unknown;
+		Traffic t = traffic.get(connectionID);
+		if (t == null) {
+			t = new Traffic();
+			Traffic old = traffic.putIfAbsent(connectionID, t);
+			if (old != null)
+				t = old;
+		}
+		return t;
+	}
+
+	/**
+	 * @return The connections with traffic - ConnectionID -> Traffic
+	 */
+	public ConcurrentHashMap<Integer, Traffic> getTraffic() {
+		return traffic;
+	}
+
+	/**
+	 * @return The counters of each message type, summed over all connections - Type -> Counters
+	 */
+	public TreeMap<String, Counters> getTypes() {
+		TreeMap<String, Counters> ret = new TreeMap<>();
+		ArrayList<Traffic> all = new ArrayList<Traffic>(traffic.values());
+		all.add(unknown);
+		for (Traffic t : all)
+			for (Entry<String, Counters> e : t.types.entrySet()) {
+				Counters sum = ret.get(e.getKey());
+				if (sum == null) {
+					sum = new Counters();
+					ret.put(e.getKey(), sum);
+				}
+				sum.add(e.getValue());
+			}
+		return ret;
+	}
+
+	/*
+	 * QUEUES
+	 */
+
+	/**
+	 * Samples the queues of the server.
+	 *
+	 * @param inboundDepth
+	 *            Messages waiting for the tick thread
+	 * @param inboundDropped
+	 *            Messages dropped because that queue was full, since the server started
+	 * @param pipelineBacklog
+	 *            Ticks waiting for the network thread
+	 * @param pipelineStalls
+	 *            Times the tick thread waited for the network thread, since the server started
+	 */
+	public void queues(int inboundDepth, long inboundDropped, int pipelineBacklog, long pipelineStalls) {
+		this.inboundDepth = inboundDepth;
+		this.inboundDropped = inboundDropped;
+		this.pipelineBacklog = pipelineBacklog;
+		this.pipelineStalls = pipelineStalls;
+	}
+
+	public int getInboundDepth() {
+		return inboundDepth;
+	}
+
+	public long getInboundDropped() {
+		return inboundDropped;
+	}
+
+	public int getPipelineBacklog() {
+		return pipelineBacklog;
+	}
+
+	public long getPipelineStalls() {
+		return pipelineStalls;
+	}
+
+	/**
+	 * Counts a refused login.
+	 */
+	public void loginRefused() {
+		refusedLogins.incrementAndGet();
+	}
+
+	/**
+	 * @return The logins refused since the server started.
+	 */
+	public long getRefusedLogins() {
+		return refusedLogins.get();
+	}
+
+	/*
+	 * REPORTING
+	 */
+
+	/**
+	 * Prints this and resets it periodically, on its own thread.
+	 *
+	 * @param millis
+	 *            The period. 0 stops.
+	 * @param out
+	 *            Where to print
+	 */
+	public synchronized void dumpEvery(long millis, final PrintStream out) {
+		if (dumper != null)
+			dumper.cancel();
+		dumper = null;
+		if (millis <= 0)
+			return;
+		dumper = new Timer("Centurion-metrics", true);
+		dumper.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (ServerMetrics.this) {
+					out.println(ServerMetrics.this);
+					reset();
+				}
+			}
+		}, millis, millis);
+	}
+
+	/**
+	 * @return The bytes sent to all connections.
+	 */
+	public long getBytesSent() {
+		long sum = unknown.bytesSent.get();
+		for (Traffic t : traffic.values())
+			sum += t.bytesSent.get();
+		return sum;
+	}
+
+	/**
+	 * @return The bytes received from all connections.
+	 */
+	public long getBytesReceived() {
+		long sum = unknown.bytesReceived.get();
+		for (Traffic t : traffic.values())
+			sum += t.bytesReceived.get();
+		return sum;
+	}
+
+	/**
+	 * Starts counting again.
+	 */
+	public synchronized void reset() {
+		ticks = tickNanos = tickMax = 0;
+		stages = stageNanos = stageMax = 0;
+		unknown.reset();
+		for (Traffic t : traffic.values())
+			t.reset();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("tick %.2f ms (max %.2f) | network %.2f ms (max %.2f) | sent %d B | received %d B",
+				getAverageTickTime(), getMaxTickTime(), getAverageNetworkTime(), getMaxNetworkTime(), getBytesSent(),
+				getBytesReceived()));
+		sb.append(String.format("%ninbound %d waiting, %d dropped | pipeline %d waiting, %d stalls | %d logins refused",
+				inboundDepth, inboundDropped, pipelineBacklog, pipelineStalls, refusedLogins.get()));
+		for (Entry<String, Counters> e : getTypes().entrySet())
+			sb.append(String.format("%n  %s: %s", e.getKey(), e.getValue()));
+		for (Entry<Integer, Traffic> e : traffic.entrySet()) {
+			Traffic t = e.getValue();
+			sb.append(String.format("%n  [%d] %s | write buffer %d B | reliable %d pending, %d resent", e.getKey(), t,
+					t.writeBuffer, t.reliablePending, t.resent.get()));
+			for (Entry<String, Counters> type : new TreeMap<>(t.types).entrySet())
+				sb.append(String.format("%n    %s: %s", type.getKey(), type.getValue()));
+		}
+		return sb.toString();
+	}
+}
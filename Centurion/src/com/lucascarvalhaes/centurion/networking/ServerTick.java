@@ -0,0 +1,60 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The network news of one server tick: what changed, what was created and what was removed.<br>
+ * Made by the tick thread and handed to the network stage. <b>Never changed after it is made.</b><br>
+ * The messages hold copies of the entity state, and the create messages already carry their network IDs.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class ServerTick {
+	/**
+	 * Messages for updating entities - EntityID -> UpdateMessage
+	 */
+	public final HashMap<String, HashMap<String, Object>>	updateMessages;
+	/**
+	 * Messages for creating entities - CreateMessage -> EntityClass
+	 */
+	public final HashMap<HashMap<String, Object>, String>	newEntities;
+	/**
+	 * Entities that have been removed
+	 */
+	public final ArrayList<String>							removedEntities;
+	/**
+	 * The last input of each player applied before this tick - ConnectionID -> InputSequence
+	 */
+	public final HashMap<Integer, Integer>					lastInputs;
+	/**
+	 * When the tick was simulated
+	 */
+	public final long										stamp;
+
+	public ServerTick(HashMap<String, HashMap<String, Object>> updateMessages,
+			HashMap<HashMap<String, Object>, String> newEntities, ArrayList<String> removedEntities,
+			HashMap<Integer, Integer> lastInputs, long stamp) {
+		this.updateMessages = updateMessages;
+		this.newEntities = newEntities;
+		this.removedEntities = removedEntities;
+		this.lastInputs = lastInputs;
+		this.stamp = stamp;
+	}
+
+	/**
+	 * @return The sequence of the last input of a player this tick applied, 0 if none.
+	 */
+	public int lastInputOf(int connectionID) {
+		Integer last = lastInputs.get(connectionID);
+		return last == null ? 0 : last;
+	}
+
+	/**
+	 * @return true if nothing happened on this tick.
+	 */
+	public boolean isEmpty() {
+		return updateMessages.isEmpty() && newEntities.isEmpty() && removedEntities.isEmpty();
+	}
+}
@@ -0,0 +1,298 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.lucascarvalhaes.centurion.model.Centurion;
+import com.lucascarvalhaes.centurion.model.EntityCointainerListener;
+import com.lucascarvalhaes.centurion.model.ManagerComponentAdapter;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+import com.lucascarvalhaes.centurion.physics.PhysicsManagerComponent;
+
+/**
+ * A piece of the server world.<br>
+ * Each zone has its own entity manager, components and physics and can be ticked on its own thread.<br>
+ * When an entity leaves the zone bounds it is handed off to the zone it entered: it is removed<br>
+ * here and added there on the start of the next tick of that zone, keeping its motion.<br>
+ * Handoffs are invisible to the clients. The network messages of all zones are merged by the<br>
+ * {@link GameServer} into a single view.<br>
+ * <b>Everything that touches the entities of a zone must synchronize on the zone.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class ServerZone {
+
+	/**
+	 * The area this zone simulates. Null means everywhere.
+	 */
+	protected final Rectangle								bounds;
+	/**
+	 * The server this zone belongs to
+	 */
+	protected final GameServer								server;
+	/**
+	 * The entities of this zone
+	 */
+	public final Centurion<NWEntity>						entities;
+
+	// Messages for updating entities - Should be EntityID -> UpdateMessage
+	protected final HashMap<String, HashMap<String, Object>>	updateMessages	= new HashMap<>();
+	// Messages for creating entities - Should be CreateMessage -> EntityClass
+	protected final HashMap<HashMap<String, Object>, String>	newEntities		= new HashMap<>();
+	// Messages for entities that have been removed
+	protected final ArrayList<String>						removedEntities	= new ArrayList<>();
+
+	/**
+	 * Entities coming in from other zones or spawned by the server
+	 */
+	protected final ConcurrentLinkedQueue<Handoff>			inbox			= new ConcurrentLinkedQueue<>();
+	/**
+	 * True while entities are moving between zones. Hides the add and remove from the clients.
+	 */
+	protected boolean										handingOff		= false;
+	/**
+	 * The tick thread of this zone. Null when the server ticks it.
+	 */
+	protected Timer											timer			= null;
+
+	public ServerZone(GameServer server, Rectangle bounds) {
+		this.server = server;
+		this.bounds = bounds;
+		entities = new Centurion<>();
+
+		// Add the physics manager to the entities
+		entities.registerComponent("physicsComponent", new PhysicsManagerComponent());
+		// Lets register all entity registrations
+		entities.addListener(new EntityCointainerListener<NWEntity>() {
+
+			@Override
+			public void onRemoving(NWEntity e) {
+				// Store to send to clients
+				if (!handingOff)
+					removedEntities.add(e.getEntityID());
+			}
+
+			@Override
+			public void onAdding(NWEntity e) {
+				// I can safely use the e.nwCreate() method as key because the string it returns
+				// contains the entity ID which is unique
+				if (!handingOff)
+					newEntities.put(e.nwCreate(), e.getClass().getName());
+			}
+		});
+		// Lets now register a component to manage networking internals on the manager
+		entities.registerComponent("networkingComponent", new ManagerComponentAdapter<NWEntity>() {
+			@Override
+			public void updateEntity(NWEntity e, float delta) {
+				// Resting entities with nothing new are not sent again
+				if (!e.nwShouldUpdate())
+					return;
+				// Store the updated entities as network messages
+				// Only what changed is in them, so join with the one not drained yet
+				HashMap<String, Object> msg = e.nwUpdate();
+				HashMap<String, Object> pending = updateMessages.get(e.getEntityID());
+				updateMessages.put(e.getEntityID(), pending == null ? msg : SnapshotDelta.combine(pending, msg));
+			}
+		});
+	}
+
+	/**
+	 * Simulates this zone.
+	 *
+	 * @param dt
+	 *            The time since the last tick in milliseconds.
+	 */
+	public synchronized void tick(float dt) {
+		// Receive what came from other zones
+		Handoff in;
+		while ((in = inbox.poll()) != null)
+			in.apply(this);
+
+		// Update all entities
+		entities.update(dt / 1000f, -1, -1);
+
+		// Send away what left
+		if (bounds != null)
+			handOffLeaving();
+	}
+
+	/**
+	 * Finds the entities outside the bounds and sends them to the zone they are in now.
+	 */
+	protected void handOffLeaving() {
+		ArrayList<NWEntity> leaving = null;
+		for (NWEntity e : entities.getInternalList()) {
+			if (!e.hasBody())
+				continue;
+			Vector2 pos = e.getPos();
+			if (!bounds.contains(pos.x, pos.y)) {
+				if (leaving == null)
+					leaving = new ArrayList<>();
+				leaving.add(e);
+			}
+		}
+		if (leaving == null)
+			return;
+
+		for (NWEntity e : leaving) {
+			Vector2 pos = e.getPos();
+			ServerZone target = server.zoneAt(pos.x, pos.y);
+			if (target == this)
+				continue;
+			// Capture the motion before the body is destroyed
+			Handoff out = new Handoff(e, e.getBody());
+			handingOff = true;
+			entities.removeEntity(e);
+			handingOff = false;
+			target.inbox.add(out);
+		}
+	}
+
+	/**
+	 * Adds an entity to this zone on the start of its next tick.<br>
+	 * Safe to call from any thread.
+	 *
+	 * @param e
+	 *            The entity, without a body.
+	 * @param x
+	 *            Where to place it
+	 * @param y
+	 *            Where to place it
+	 */
+	public void spawn(NWEntity e, float x, float y) {
+		inbox.add(new Handoff(e, x, y));
+	}
+
+	/**
+	 * Moves the network messages made by the last ticks to the merged view of the server.
+	 */
+	public synchronized void drainMessages(HashMap<String, HashMap<String, Object>> updates,
+			HashMap<HashMap<String, Object>, String> news, ArrayList<String> removed) {
+		for (Entry<String, HashMap<String, Object>> e : updateMessages.entrySet()) {
+			HashMap<String, Object> pending = updates.get(e.getKey());
+			updates.put(e.getKey(), pending == null ? e.getValue() : SnapshotDelta.combine(pending, e.getValue()));
+		}
+		news.putAll(newEntities);
+		removed.addAll(removedEntities);
+		updateMessages.clear();
+		newEntities.clear();
+		removedEntities.clear();
+	}
+
+	/**
+	 * Makes the create messages of all entities of this zone.
+	 *
+	 * @param allEnts
+	 *            Where to put them: CreateMessage -> EntityClass
+	 */
+	public synchronized void createMessages(HashMap<HashMap<String, Object>, String> allEnts) {
+		for (NWEntity ent : entities.getInternalList())
+			allEnts.put(ent.nwCreate(), ent.getClass().getName());
+	}
+
+	/**
+	 * Starts the tick thread of this zone.
+	 *
+	 * @param stepTime
+	 *            Milliseconds between ticks.
+	 */
+	public void start(final int stepTime) {
+		timer = new Timer("Centurion-zone", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				tick(stepTime);
+			}
+		}, 0, stepTime);
+	}
+
+	/**
+	 * Stops the tick thread of this zone.
+	 */
+	public void stop() {
+		if (timer != null)
+			timer.cancel();
+		timer = null;
+	}
+
+	/**
+	 * @return true if the point is inside this zone.
+	 */
+	public boolean contains(float x, float y) {
+		return bounds == null || bounds.contains(x, y);
+	}
+
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * An entity moving into a zone.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	protected static class Handoff {
+		final NWEntity	entity;
+		final float		x, y, angle, angularVelocity;
+		final Vector2	linearVelocity;
+		final boolean	spawn;
+
+		/**
+		 * Entity coming from another zone. Keeps the body motion.
+		 */
+		Handoff(NWEntity e, Body body) {
+			entity = e;
+			x = body.getPosition().x;
+			y = body.getPosition().y;
+			angle = body.getAngle();
+			linearVelocity = new Vector2(body.getLinearVelocity());
+			angularVelocity = body.getAngularVelocity();
+			spawn = false;
+		}
+
+		/**
+		 * New entity.
+		 */
+		Handoff(NWEntity e, float x, float y) {
+			entity = e;
+			this.x = x;
+			this.y = y;
+			angle = 0;
+			linearVelocity = null;
+			angularVelocity = 0;
+			spawn = true;
+		}
+
+		/**
+		 * Adds the entity to the zone. Runs on the zone tick.
+		 */
+		void apply(ServerZone zone) {
+			// Add quietly, the body has to be placed first
+			zone.handingOff = true;
+			zone.entities.addEntity(entity);
+			zone.handingOff = false;
+
+			Body body = entity.getBody();
+			if (body != null) {
+				body.setTransform(x, y, angle);
+				if (linearVelocity != null) {
+					body.setLinearVelocity(linearVelocity);
+					body.setAngularVelocity(angularVelocity);
+				}
+			}
+
+			// Only new entities are news to the clients
+			if (spawn)
+				zone.newEntities.put(entity.nwCreate(), entity.getClass().getName());
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Delta encoding of entity update messages.<br>
+ * A delta has the entity ID, only the proprieties that changed since the baseline and<br>
+ * the names of the proprieties that are gone. The data map is diffed key by key.<br>
+ * Both sides must merge the delta on the same baseline to get the full message back.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class SnapshotDelta {
+
+	/**
+	 * Proprieties of the baseline that are not in the new message
+	 */
+	public static final String	REMOVED			= "nw_removed";
+	/**
+	 * Data map keys of the baseline that are not in the new message
+	 */
+	public static final String	DM_REMOVED		= "nw_dataMapRemoved";
+	public static final String	ID				= "nw_entityID";
+	public static final String	DATA_MAP		= "nw_dataMap";
+
+	/**
+	 * Copies an update message so it can be stored as a baseline.<br>
+	 * Vectors and maps are copied, since the entity keeps changing them.
+	 *
+	 * @param msg
+	 *            The message to copy.
+	 * @return The copy
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, Object> copy(HashMap<String, Object> msg) {
+		HashMap<String, Object> ret = new HashMap<>(msg);
+		for (Entry<String, Object> e : ret.entrySet()) {
+			Object value = e.getValue();
+			if (value instanceof Vector2)
+				e.setValue(new Vector2((Vector2) value));
+			else if (value instanceof HashMap)
+				e.setValue(new HashMap<>((HashMap<String, Object>) value));
+		}
+		return ret;
+	}
+
+	/**
+	 * Makes the delta between two full messages.
+	 *
+	 * @param base
+	 *            The message the other side already has.
+	 * @param cur
+	 *            The current message.
+	 * @return The delta or null if nothing changed.
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, Object> diff(HashMap<String, Object> base, HashMap<String, Object> cur) {
+		HashMap<String, Object> delta = null;
+
+		for (Entry<String, Object> e : cur.entrySet()) {
+			String key = e.getKey();
+			Object value = e.getValue();
+			Object old = base.get(key);
+
+			// The data map goes key by key
+			if (DATA_MAP.equals(key) && value instanceof HashMap && old instanceof HashMap) {
+				HashMap<String, Object> dmChanged = null;
+				ArrayList<String> dmRemoved = null;
+				HashMap<String, Object> dmCur = (HashMap<String, Object>) value;
+				HashMap<String, Object> dmOld = (HashMap<String, Object>) old;
+				for (Entry<String, Object> dm : dmCur.entrySet()) {
+					if (!same(dmOld.get(dm.getKey()), dm.getValue())) {
+						if (dmChanged == null)
+							dmChanged = new HashMap<>();
+						dmChanged.put(dm.getKey(), dm.getValue());
+					}
+				}
+				for (String dmKey : dmOld.keySet()) {
+					if (!dmCur.containsKey(dmKey)) {
+						if (dmRemoved == null)
+							dmRemoved = new ArrayList<>();
+						dmRemoved.add(dmKey);
+					}
+				}
+				if (dmChanged != null || dmRemoved != null) {
+					delta = start(delta, cur);
+					delta.put(DATA_MAP, dmChanged != null ? dmChanged : new HashMap<>());
+					if (dmRemoved != null)
+						delta.put(DM_REMOVED, dmRemoved);
+				}
+				continue;
+			}
+
+			if (!ID.equals(key) && !same(old, value)) {
+				delta = start(delta, cur);
+				delta.put(key, value);
+			}
+		}
+
+		// Proprieties that are gone
+		for (String key : base.keySet()) {
+			if (!cur.containsKey(key)) {
+				delta = start(delta, cur);
+				ArrayList<String> removed = (ArrayList<String>) delta.get(REMOVED);
+				if (removed == null) {
+					removed = new ArrayList<>();
+					delta.put(REMOVED, removed);
+				}
+				removed.add(key);
+			}
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Applies a delta on its baseline.
+	 *
+	 * @param base
+	 *            The baseline. Not changed.
+	 * @param delta
+	 *            The delta made against the baseline.
+	 * @return The full message
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, Object> merge(HashMap<String, Object> base, HashMap<String, Object> delta) {
+		HashMap<String, Object> ret = new HashMap<>(base);
+		for (Entry<String, Object> e : delta.entrySet()) {
+			String key = e.getKey();
+			if (REMOVED.equals(key) || DM_REMOVED.equals(key))
+				continue;
+			if (DATA_MAP.equals(key) && base.get(DATA_MAP) instanceof Map) {
+				HashMap<String, Object> dm = new HashMap<>((Map<String, Object>) base.get(DATA_MAP));
+				dm.putAll((Map<String, Object>) e.getValue());
+				ArrayList<String> dmRemoved = (ArrayList<String>) delta.get(DM_REMOVED);
+				if (dmRemoved != null)
+					for (String dmKey : dmRemoved)
+						dm.remove(dmKey);
+				ret.put(DATA_MAP, dm);
+				continue;
+			}
+			ret.put(key, e.getValue());
+		}
+
+		ArrayList<String> removed = (ArrayList<String>) delta.get(REMOVED);
+		if (removed != null)
+			for (String key : removed)
+				ret.remove(key);
+
+		return ret;
+	}
+
+	/**
+	 * Joins two partial update messages of the same entity, as if only one was made.<br>
+	 * The newer wins. Removed proprieties are kept unless the newer puts them back.
+	 *
+	 * @param older
+	 *            The first message. Not changed.
+	 * @param newer
+	 *            The message made after it. Not changed.
+	 * @return Both in one message
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, Object> combine(HashMap<String, Object> older, HashMap<String, Object> newer) {
+		HashMap<String, Object> ret = merge(older, newer);
+		ArrayList<String> removed = new ArrayList<>();
+		for (HashMap<String, Object> msg : Arrays.asList(older, newer)) {
+			ArrayList<String> r = (ArrayList<String>) msg.get(REMOVED);
+			if (r != null)
+				for (String key : r)
+					if (!removed.contains(key) && !(msg == older && newer.containsKey(key)))
+						removed.add(key);
+		}
+		ret.remove(REMOVED);
+		if (removed.size() > 0)
+			ret.put(REMOVED, removed);
+		return ret;
+	}
+
+	/**
+	 * Starts a delta with the entity ID, if it wasn't started yet.
+	 */
+	private static HashMap<String, Object> start(HashMap<String, Object> delta, HashMap<String, Object> cur) {
+		if (delta != null)
+			return delta;
+		delta = new HashMap<>();
+		delta.put(ID, cur.get(ID));
+		return delta;
+	}
+
+	/**
+	 * Equality that compares vectors by value.
+	 */
+	private static boolean same(Object a, Object b) {
+		if (a == b)
+			return true;
+		if (a == null || b == null)
+			return false;
+		if (a instanceof Vector2 && b instanceof Vector2)
+			return ((Vector2) a).x == ((Vector2) b).x && ((Vector2) a).y == ((Vector2) b).y;
+		return a.equals(b);
+	}
+}
@@ -0,0 +1,103 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A ring with the world states of the last snapshots, by sequence number.<br>
+ * The server keeps one for each client with the state that client has after each snapshot,<br>
+ * and the client keeps one with the states it rebuilt. Deltas are made and read against them.<br>
+ * A state is a map EntityID -> Full update message. <b>Stored states must not be changed.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class SnapshotHistory {
+
+	/**
+	 * How many snapshots are kept by default. About one second at 60 ticks per second.
+	 */
+	public static final int										DEFAULT_SIZE	= 64;
+
+	private final int[]											sequences;
+	private final HashMap<String, HashMap<String, Object>>[]	states;
+	/**
+	 * The last sequence the other side said it has. -1 for none.
+	 */
+	private volatile int										acked			= -1;
+
+	public SnapshotHistory() {
+		this(DEFAULT_SIZE);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SnapshotHistory(int size) {
+		sequences = new int[size];
+		states = new HashMap[size];
+	}
+
+	/**
+	 * Stores the state of a snapshot, replacing the oldest one.
+	 *
+	 * @param sequence
+	 *            The snapshot sequence.
+	 * @param state
+	 *            The world state after that snapshot.
+	 */
+	public synchronized void store(int sequence, HashMap<String, HashMap<String, Object>> state) {
+		int slot = slot(sequence);
+		sequences[slot] = sequence;
+		states[slot] = state;
+	}
+
+	/**
+	 * @param sequence
+	 *            The snapshot sequence.
+	 * @return The state or null if it is too old or was never stored.
+	 */
+	public synchronized HashMap<String, HashMap<String, Object>> get(int sequence) {
+		if (sequence < 0)
+			return null;
+		int slot = slot(sequence);
+		if (states[slot] == null || sequences[slot] != sequence)
+			return null;
+		return states[slot];
+	}
+
+	/**
+	 * Marks a snapshot as received by the other side. Older acks are ignored.
+	 *
+	 * @param sequence
+	 *            The snapshot sequence.
+	 */
+	public void ack(int sequence) {
+		if (sequence > acked)
+			acked = sequence;
+	}
+
+	/**
+	 * @return The last acknowledged sequence, or -1.
+	 */
+	public int getAcked() {
+		return acked;
+	}
+
+	/**
+	 * @return The state of the last acknowledged snapshot, or null if there is none we still have.
+	 */
+	public HashMap<String, HashMap<String, Object>> getAckedState() {
+		return get(acked);
+	}
+
+	/**
+	 * Forgets all the states and the ack, as on a new session.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(states, null);
+		acked = -1;
+	}
+
+	private int slot(int sequence) {
+		return sequence % sequences.length;
+	}
+}
@@ -0,0 +1,181 @@
+package com.lucascarvalhaes.centurion.networking;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * A client side jitter buffer for the positions that come in snapshots.<br>
+ * Positions are kept with the server time of their snapshot and the entities are shown a little<br>
+ * in the past, between the two snapshots around that time. A late or lost snapshot doesn't make<br>
+ * them stop, as long as it is shorter than the delay.<br>
+ * The delay should be a bit over two snapshot intervals. At 20 snapshots per second, 100ms.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class SnapshotInterpolator {
+
+	/**
+	 * How far in the past entities are shown by default, in milliseconds
+	 */
+	public static final long						DEFAULT_DELAY	= 100;
+
+	/**
+	 * A position at a server time
+	 */
+	private static class Sample {
+		final long	stamp;
+		final float	x, y;
+
+		Sample(long stamp, float x, float y) {
+			this.stamp = stamp;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	private final HashMap<String, ArrayDeque<Sample>>	samples			= new HashMap<>();
+	private long										delay;
+	/**
+	 * Server time - local time, from the snapshot that took the least to arrive
+	 */
+	private long										clockOffset;
+	private boolean										synced			= false;
+	/**
+	 * The server time of the last snapshot and of the one before it
+	 */
+	private long										lastStamp		= -1, previousStamp = -1;
+
+	public SnapshotInterpolator() {
+		this(DEFAULT_DELAY);
+	}
+
+	/**
+	 * @param delay
+	 *            How far in the past entities are shown, in milliseconds
+	 */
+	public SnapshotInterpolator(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * Tells the time of a snapshot that arrived. Keeps the server clock estimate.
+	 *
+	 * @param stamp
+	 *            The server time of the snapshot
+	 */
+	public synchronized void received(long stamp) {
+		long offset = stamp - TimeUtils.millis();
+		// Late snapshots look like an older server clock. The fastest one is the closest.
+		// Slowly forgets it, so the clocks drifting apart don't go unnoticed.
+		if (!synced || offset > clockOffset)
+			clockOffset = offset;
+		else
+			clockOffset--;
+		synced = true;
+		if (stamp > lastStamp) {
+			previousStamp = lastStamp;
+			lastStamp = stamp;
+		}
+	}
+
+	/**
+	 * Stores the position of an entity in a snapshot.
+	 *
+	 * @param stamp
+	 *            The server time of the snapshot
+	 * @param entityID
+	 *            The entity
+	 * @param position
+	 *            Where it was
+	 */
+	public synchronized void record(long stamp, String entityID, Vector2 position) {
+		ArrayDeque<Sample> entity = samples.get(entityID);
+		if (entity == null) {
+			entity = new ArrayDeque<>();
+			samples.put(entityID, entity);
+		}
+		Sample last = entity.peekLast();
+		if (last != null) {
+			// Old or the same snapshot again
+			if (stamp <= last.stamp)
+				return;
+			// It stood still on the snapshots that didn't have it, don't slide since then
+			if (previousStamp > last.stamp && previousStamp < stamp)
+				entity.addLast(new Sample(previousStamp, last.x, last.y));
+		}
+		entity.addLast(new Sample(stamp, position.x, position.y));
+	}
+
+	/**
+	 * Finds where an entity is at a render time. Samples before it that won't be used again are dropped.
+	 *
+	 * @param entityID
+	 *            The entity
+	 * @param renderTime
+	 *            The server time to show, see {@link #getRenderTime()}
+	 * @param out
+	 *            Gets the position
+	 * @return false if there is no position for the entity.
+	 */
+	public synchronized boolean sample(String entityID, long renderTime, Vector2 out) {
+		ArrayDeque<Sample> entity = samples.get(entityID);
+		if (entity == null || entity.isEmpty())
+			return false;
+
+		// Keep only the last sample before the render time
+		Sample from = entity.removeFirst();
+		while (!entity.isEmpty()) {
+			Sample next = entity.peekFirst();
+			if (next.stamp > renderTime) {
+				entity.addFirst(from);
+				float alpha = from.stamp > renderTime ? 0 : (renderTime - from.stamp) / (float) (next.stamp - from.stamp);
+				out.set(from.x + (next.x - from.x) * alpha, from.y + (next.y - from.y) * alpha);
+				return true;
+			}
+			from = entity.removeFirst();
+		}
+		entity.addFirst(from);
+		// Nothing newer yet, stay at the last one
+		out.set(from.x, from.y);
+		return true;
+	}
+
+	/**
+	 * @return The server time the entities should be shown at now.
+	 */
+	public synchronized long getRenderTime() {
+		return TimeUtils.millis() + clockOffset - delay;
+	}
+
+	/**
+	 * Forgets an entity.
+	 */
+	public synchronized void remove(String entityID) {
+		samples.remove(entityID);
+	}
+
+	/**
+	 * Forgets all entities, like after connecting to another server.
+	 */
+	public synchronized void clear() {
+		samples.clear();
+		synced = false;
+		lastStamp = previousStamp = -1;
+	}
+
+	public synchronized long getDelay() {
+		return delay;
+	}
+
+	/**
+	 * @param delay
+	 *            How far in the past entities are shown, in milliseconds
+	 */
+	public synchronized void setDelay(long delay) {
+		this.delay = delay;
+	}
+}
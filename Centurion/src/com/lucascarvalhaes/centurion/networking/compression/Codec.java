@@ -0,0 +1,46 @@
+package com.lucascarvalhaes.centurion.networking.compression;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A compression method for network messages.<br>
+ * Codecs are shared by all connections, so they must be thread safe.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public interface Codec {
+
+	/**
+	 * Codec IDs. Written before each compressed message.
+	 */
+	public static final byte	NONE	= 0, DEFLATE = 1, LZ = 2;
+
+	/**
+	 * @return The ID written before the messages compressed with this codec.
+	 */
+	public byte getID();
+
+	/**
+	 * Compresses data and writes it to the output. Must write how many bytes it used.
+	 *
+	 * @param data
+	 *            The bytes to compress
+	 * @param length
+	 *            How many bytes of data to compress
+	 * @param output
+	 *            Where to write
+	 */
+	public void compress(byte[] data, int length, Output output);
+
+	/**
+	 * Reads data written by {@link #compress(byte[], int, Output)}.
+	 *
+	 * @param input
+	 *            Where to read
+	 * @param data
+	 *            Where to put the bytes. Has exactly the uncompressed length.
+	 */
+	public void decompress(Input input, byte[] data);
+}
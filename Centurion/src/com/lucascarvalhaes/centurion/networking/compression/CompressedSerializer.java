@@ -0,0 +1,174 @@
+package com.lucascarvalhaes.centurion.networking.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Wraps a serializer and compresses what it writes with a {@link Codec}.<br>
+ * Messages smaller than the threshold are written as they are: compressing them costs CPU and saves nothing.<br>
+ * Written as: codec ID, uncompressed length, then the codec data (or the raw bytes).<br>
+ * Can keep copies of the raw messages to train a dictionary with {@link DictionaryTrainer}.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class CompressedSerializer<T> extends Serializer<T> {
+
+	/**
+	 * Biggest message accepted when reading
+	 */
+	public static final int				MAX_LENGTH	= 1 << 24;
+
+	private static final String			EXPANSION	= "centurion.expansion";
+
+	private final Serializer<T>			serializer;
+	private final Codec					codec;
+	private final int					threshold;
+
+	/**
+	 * The raw bytes of each thread
+	 */
+	private final ThreadLocal<Output>	buffers		= new ThreadLocal<Output>() {
+														@Override
+														protected Output initialValue() {
+															return new Output(4096, -1);
+														}
+													};
+
+	// Raw messages kept for training. Null when not sampling.
+	private volatile List<byte[]>		samples		= null;
+	private volatile int				maxSamples;
+
+	/**
+	 * @param serializer
+	 *            The serializer that writes the message
+	 * @param codec
+	 *            The compression. Null to never compress.
+	 * @param threshold
+	 *            Messages with less bytes are not compressed
+	 */
+	public CompressedSerializer(Serializer<T> serializer, Codec codec, int threshold) {
+		this.serializer = serializer;
+		this.codec = codec;
+		this.threshold = threshold;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, T object) {
+		Output raw = buffers.get();
+		raw.clear();
+		serializer.write(kryo, raw, object);
+		int length = raw.position();
+		sample(raw.getBuffer(), length);
+
+		if (codec == null || length < threshold) {
+			output.writeByte(Codec.NONE);
+			output.writeInt(length, true);
+			output.writeBytes(raw.getBuffer(), 0, length);
+			return;
+		}
+		output.writeByte(codec.getID());
+		output.writeInt(length, true);
+		int start = output.position();
+		codec.compress(raw.getBuffer(), length, output);
+		addExpansion(kryo, length - (output.position() - start));
+	}
+
+	@Override
+	public T read(Kryo kryo, Input input, Class<T> type) {
+		byte id = input.readByte();
+		int length = input.readInt(true);
+		if (length > MAX_LENGTH)
+			throw new KryoException("Message too big: " + length);
+
+		byte[] data;
+		if (id == Codec.NONE) {
+			data = input.readBytes(length);
+		} else if (codec != null && id == codec.getID()) {
+			data = new byte[length];
+			int start = input.position();
+			codec.decompress(input, data);
+			addExpansion(kryo, length - (input.position() - start));
+		} else {
+			throw new KryoException("Message compressed with codec " + id + ", expected " + (codec == null ? Codec.NONE : codec.getID()));
+		}
+		return serializer.read(kryo, new Input(data), type);
+	}
+
+	/*
+	 * METERING
+	 */
+
+	/**
+	 * Counts bytes saved by compression on a kryo, for the messages being written or read.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void addExpansion(Kryo kryo, int bytes) {
+		int[] expansion = (int[]) kryo.getContext().get(EXPANSION);
+		if (expansion == null) {
+			expansion = new int[1];
+			kryo.getContext().put(EXPANSION, expansion);
+		}
+		expansion[0] += bytes;
+	}
+
+	/**
+	 * @return The bytes saved by compression on a kryo since the last call. Add them to the<br>
+	 *         size of a message to get its size before compression.
+	 */
+	@SuppressWarnings("unchecked")
+	public static int takeExpansion(Kryo kryo) {
+		int[] expansion = (int[]) kryo.getContext().get(EXPANSION);
+		if (expansion == null)
+			return 0;
+		int ret = expansion[0];
+		expansion[0] = 0;
+		return ret;
+	}
+
+	/*
+	 * SAMPLING
+	 */
+
+	/**
+	 * Starts keeping copies of the raw messages written.
+	 *
+	 * @param max
+	 *            How many to keep. The rest are ignored.
+	 */
+	public synchronized void startSampling(int max) {
+		maxSamples = max;
+		samples = new ArrayList<>();
+	}
+
+	/**
+	 * Stops sampling.
+	 *
+	 * @return The raw messages kept.
+	 */
+	public synchronized List<byte[]> stopSampling() {
+		List<byte[]> ret = samples;
+		samples = null;
+		return ret == null ? new ArrayList<byte[]>() : ret;
+	}
+
+	private void sample(byte[] buffer, int length) {
+		if (samples == null)
+			return;
+		synchronized (this) {
+			if (samples != null && samples.size() < maxSamples)
+				samples.add(Arrays.copyOf(buffer, length));
+		}
+	}
+
+	public Codec getCodec() {
+		return codec;
+	}
+}
@@ -0,0 +1,124 @@
+package com.lucascarvalhaes.centurion.networking.compression;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Deflate, with the deflaters and inflaters kept in pools instead of made for each message.<br>
+ * A preset dictionary (see {@link DictionaryTrainer}) makes small messages compress a lot better.<br>
+ * <b>Both sides must use the same dictionary.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class DeflateCodec implements Codec {
+
+	private final int								level;
+	private final byte[]							dictionary;
+
+	private final ConcurrentLinkedQueue<Deflater>	deflaters	= new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Inflater>	inflaters	= new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<byte[]>				buffers		= new ThreadLocal<byte[]>() {
+																	@Override
+																	protected byte[] initialValue() {
+																		return new byte[4096];
+																	}
+																};
+
+	/**
+	 * Fast deflate with no dictionary.
+	 */
+	public DeflateCodec() {
+		this(Deflater.BEST_SPEED, null);
+	}
+
+	/**
+	 * @param level
+	 *            The deflate level, 1 to 9
+	 * @param dictionary
+	 *            A preset dictionary or null
+	 */
+	public DeflateCodec(int level, byte[] dictionary) {
+		this.level = level;
+		this.dictionary = dictionary;
+	}
+
+	@Override
+	public byte getID() {
+		return DEFLATE;
+	}
+
+	@Override
+	public void compress(byte[] data, int length, Output output) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null)
+			deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(data, 0, length);
+			deflater.finish();
+
+			// Compressed data is rarely much bigger than the input
+			byte[] buffer = buffers.get();
+			if (buffer.length < length + 64) {
+				buffer = new byte[length + 64];
+				buffers.set(buffer);
+			}
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == buffer.length) {
+					byte[] bigger = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, size);
+					buffer = bigger;
+					buffers.set(buffer);
+				}
+				size += deflater.deflate(buffer, size, buffer.length - size);
+			}
+			output.writeInt(size, true);
+			output.writeBytes(buffer, 0, size);
+		} finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+
+	@Override
+	public void decompress(Input input, byte[] data) {
+		int size = input.readInt(true);
+		byte[] compressed = input.readBytes(size);
+		Inflater inflater = inflaters.poll();
+		if (inflater == null)
+			inflater = new Inflater(true);
+		try {
+			if (dictionary != null)
+				inflater.setDictionary(dictionary);
+			inflater.setInput(compressed);
+			int read = 0;
+			while (read < data.length) {
+				int n = inflater.inflate(data, read, data.length - read);
+				if (n == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new KryoException("Compressed message is shorter than expected.");
+				read += n;
+			}
+		} catch (DataFormatException ex) {
+			throw new KryoException(ex);
+		} finally {
+			inflater.reset();
+			inflaters.offer(inflater);
+		}
+	}
+
+	/**
+	 * @return The dictionary or null.
+	 */
+	public byte[] getDictionary() {
+		return dictionary;
+	}
+}
@@ -0,0 +1,126 @@
+package com.lucascarvalhaes.centurion.networking.compression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Builds a preset dictionary for {@link DeflateCodec} from sample messages.<br>
+ * Takes the byte strings that repeat the most between samples (entity IDs, class names, keys)<br>
+ * and puts them together, the most common at the end where deflate reaches them cheaper.<br>
+ * Samples can be taken with {@link CompressedSerializer#startSampling(int)}, from the serializer<br>
+ * registered for the message: <code>(CompressedSerializer) kryo.getRegistration(Snapshot.class).getSerializer()</code>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class DictionaryTrainer {
+
+	/**
+	 * Length of the byte strings counted
+	 */
+	public static final int	GRAM			= 8;
+	/**
+	 * Default dictionary size. Small dictionaries are cheap to set on each message.
+	 */
+	public static final int	DEFAULT_SIZE	= 2048;
+
+	/**
+	 * @param samples
+	 *            Raw messages
+	 * @return A dictionary of {@link #DEFAULT_SIZE} bytes at most.
+	 */
+	public static byte[] train(List<byte[]> samples) {
+		return train(samples, DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param samples
+	 *            Raw messages
+	 * @param size
+	 *            The max dictionary size
+	 * @return The dictionary. Empty if the samples have nothing in common.
+	 */
+	public static byte[] train(List<byte[]> samples, int size) {
+		// Count in how many samples each string shows up
+		HashMap<Gram, Integer> counts = new HashMap<>();
+		for (byte[] sample : samples) {
+			HashMap<Gram, Boolean> seen = new HashMap<>();
+			for (int i = 0; i + GRAM <= sample.length; i++) {
+				Gram g = new Gram(sample, i);
+				if (seen.put(g, true) == null) {
+					Integer c = counts.get(g);
+					counts.put(g, c == null ? 1 : c + 1);
+				}
+			}
+		}
+
+		// Strings seen in a single sample are noise
+		ArrayList<Entry<Gram, Integer>> common = new ArrayList<>();
+		for (Entry<Gram, Integer> e : counts.entrySet())
+			if (e.getValue() > 1)
+				common.add(e);
+		Collections.sort(common, new Comparator<Entry<Gram, Integer>>() {
+			@Override
+			public int compare(Entry<Gram, Integer> a, Entry<Gram, Integer> b) {
+				return Integer.compare(b.getValue(), a.getValue());
+			}
+		});
+
+		// Most common first, then reversed so they end up at the end
+		ArrayList<Gram> picked = new ArrayList<>();
+		int total = 0;
+		for (Entry<Gram, Integer> e : common) {
+			if (total + GRAM > size)
+				break;
+			picked.add(e.getKey());
+			total += GRAM;
+		}
+		Collections.reverse(picked);
+
+		byte[] dictionary = new byte[total];
+		int at = 0;
+		for (Gram g : picked) {
+			System.arraycopy(g.data, g.offset, dictionary, at, GRAM);
+			at += GRAM;
+		}
+		return dictionary;
+	}
+
+	/**
+	 * A string of {@link #GRAM} bytes inside a sample
+	 */
+	private static class Gram {
+		final byte[]	data;
+		final int		offset;
+		final int		hash;
+
+		Gram(byte[] data, int offset) {
+			this.data = data;
+			this.offset = offset;
+			int h = 1;
+			for (int i = 0; i < GRAM; i++)
+				h = 31 * h + data[offset + i];
+			hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Gram))
+				return false;
+			Gram g = (Gram) o;
+			for (int i = 0; i < GRAM; i++)
+				if (data[offset + i] != g.data[g.offset + i])
+					return false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package com.lucascarvalhaes.centurion.networking.compression;
+
+import java.util.Arrays;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A fast LZ77 codec in the LZF format. Compresses less than deflate but costs a fraction of the CPU.<br>
+ * Each token starts with a control byte:<br>
+ * <ul>
+ * <li>Below 32: a run of (control + 1) literal bytes follows.</li>
+ * <li>Otherwise: a back reference. The top 3 bits are the length - 2 (7 means one more length byte<br>
+ * follows) and the low 5 bits with the next byte are the distance - 1.</li>
+ * </ul>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class LZCodec implements Codec {
+
+	private static final int			HASH_BITS	= 13;
+	private static final int			MAX_LITERAL	= 32;
+	private static final int			MAX_OFFSET	= 1 << 13;
+	private static final int			MAX_LENGTH	= 7 + 255 + 2;
+
+	/**
+	 * The hash table and output buffer of each thread
+	 */
+	private final ThreadLocal<int[]>	tables		= new ThreadLocal<int[]>() {
+														@Override
+														protected int[] initialValue() {
+															return new int[1 << HASH_BITS];
+														}
+													};
+	private final ThreadLocal<byte[]>	buffers		= new ThreadLocal<byte[]>() {
+														@Override
+														protected byte[] initialValue() {
+															return new byte[4096];
+														}
+													};
+
+	@Override
+	public byte getID() {
+		return LZ;
+	}
+
+	@Override
+	public void compress(byte[] data, int length, Output output) {
+		int[] table = tables.get();
+		// Positions are stored + 1, so 0 is empty
+		Arrays.fill(table, 0);
+		byte[] out = buffers.get();
+		int worst = length + length / MAX_LITERAL + 1;
+		if (out.length < worst) {
+			out = new byte[worst];
+			buffers.set(out);
+		}
+
+		int ip = 0, op = 0, literals = 0;
+		while (ip < length - 2) {
+			int h = hash(data, ip);
+			int ref = table[h] - 1;
+			table[h] = ip + 1;
+			int offset = ip - ref - 1;
+			if (ref >= 0 && offset < MAX_OFFSET && data[ref] == data[ip] && data[ref + 1] == data[ip + 1]
+					&& data[ref + 2] == data[ip + 2]) {
+				op = literals(data, literals, ip - literals, out, op);
+				int max = Math.min(length - ip, MAX_LENGTH);
+				int len = 3;
+				while (len < max && data[ref + len] == data[ip + len])
+					len++;
+				int l = len - 2;
+				if (l < 7) {
+					out[op++] = (byte) ((l << 5) | (offset >> 8));
+				} else {
+					out[op++] = (byte) ((7 << 5) | (offset >> 8));
+					out[op++] = (byte) (l - 7);
+				}
+				out[op++] = (byte) offset;
+				ip += len;
+				literals = ip;
+			} else {
+				ip++;
+			}
+		}
+		op = literals(data, literals, length - literals, out, op);
+
+		output.writeInt(op, true);
+		output.writeBytes(out, 0, op);
+	}
+
+	@Override
+	public void decompress(Input input, byte[] data) {
+		int size = input.readInt(true);
+		byte[] in = input.readBytes(size);
+		int ip = 0, op = 0;
+		try {
+			while (op < data.length) {
+				int control = in[ip++] & 0xFF;
+				if (control < MAX_LITERAL) {
+					int run = control + 1;
+					System.arraycopy(in, ip, data, op, run);
+					ip += run;
+					op += run;
+				} else {
+					int l = control >> 5;
+					if (l == 7)
+						l += in[ip++] & 0xFF;
+					int ref = op - (((control & 0x1F) << 8) | (in[ip++] & 0xFF)) - 1;
+					// May overlap, copy byte by byte
+					for (int end = op + l + 2; op < end; op++, ref++)
+						data[op] = data[ref];
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			throw new KryoException("Corrupt compressed message.", ex);
+		}
+	}
+
+	/**
+	 * Writes literal runs of at most {@link #MAX_LITERAL} bytes.
+	 */
+	private static int literals(byte[] data, int start, int count, byte[] out, int op) {
+		while (count > 0) {
+			int run = Math.min(count, MAX_LITERAL);
+			out[op++] = (byte) (run - 1);
+			System.arraycopy(data, start, out, op, run);
+			op += run;
+			start += run;
+			count -= run;
+		}
+		return op;
+	}
+
+	private static int hash(byte[] data, int i) {
+		int v = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | (data[i + 2] & 0xFF);
+		return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+	}
+}
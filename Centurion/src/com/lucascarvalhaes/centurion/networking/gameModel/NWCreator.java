@@ -7,7 +7,8 @@ public abstract class NWCreator implements NWInterface {
 	/**
 	 * This method will create an instance and apply its create message.<br>
 	 * The object returned whould be compliant to the classname provided and<br>
-	 * its attributes should be the ones passed in the create message.
+	 * its attributes should be the ones passed in the create message.<br>
+	 * Instances are made by the factories of {@link NWTypeRegistry}.
 	 * 
 	 * @param className
 	 *            The class name to instantiate
@@ -16,16 +17,8 @@ public abstract class NWCreator implements NWInterface {
 	 * @return If successfull, an instance of the class with the nwApply already applyied
 	 */
 	public static NWEntity makeInstance(String className, HashMap<String, Object> msg) {
-		Class<?> cl = null;
 		NWEntity ent = null;
-		Object inst = null;
-		try {
-			cl = Class.forName(className);
-			inst = cl.newInstance();
-		} catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
-			System.out.println("COULDN'T MAKE!");
-			e.printStackTrace();
-		}
+		Object inst = NWTypeRegistry.make(className);
 
 		// Check if we got a valid instance of a nwentity
 		if (inst instanceof NWEntity)
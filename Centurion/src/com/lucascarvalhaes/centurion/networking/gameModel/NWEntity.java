@@ -1,10 +1,13 @@
 package com.lucascarvalhaes.centurion.networking.gameModel;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import com.badlogic.gdx.math.Vector2;
 import com.lucascarvalhaes.centurion.model.Entity;
+import com.lucascarvalhaes.centurion.networking.SnapshotDelta;
 
 /**
  * A entity class that generates networking messages and reads them.<br>
@@ -26,7 +29,36 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	/**
 	 * This is a data map that is synchronized to the clients
 	 */
-	protected final HashMap<String, Object>	dataMap	= new HashMap<>();
+	protected final HashMap<String, Object>	dataMap			= new HashMap<>();
+	/**
+	 * The update message proprieties that changed since the last update message
+	 */
+	protected final HashSet<String>			nwDirtyProps	= new HashSet<>();
+	/**
+	 * The data map keys that changed since the last update message
+	 */
+	protected final HashSet<String>			nwDirtyDM		= new HashSet<>();
+	/**
+	 * True when the next update message must have everything, like the first one.
+	 */
+	protected boolean						nwFullUpdate	= true;
+	/**
+	 * True when an update saying the body is at rest was already made.<br>
+	 * Sleeping bodies are only sent again when they wake up or get dirty.
+	 */
+	protected boolean						nwRestSent		= false;
+	/**
+	 * The position in the last update message
+	 */
+	private final Vector2					nwSentPos		= new Vector2();
+	/**
+	 * True when {@link #nwShouldUpdate()} already called updateDM for the next update message
+	 */
+	private boolean							nwPrepared		= false;
+	/**
+	 * The {@link Networked} fields of this class
+	 */
+	private transient NWSchema				nwSchema		= null;
 
 	public NWEntity(String OID, String ssID, Vector2 sz) {
 		super(OID, ssID, sz);
@@ -41,13 +73,28 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 */
 	@Override
 	public String getEntityID() {
+		return networkID(entityID, ownerID);
+	}
+
+	/**
+	 * @return The ID a networked entity goes by, see {@link #getEntityID()}.
+	 */
+	public static String networkID(String entityID, String ownerID) {
 		return entityID + "@" + ownerID;
 	}
 
+	/**
+	 * @return The ID the entity of a create message goes by, see {@link #getEntityID()}.
+	 */
+	public static String networkID(HashMap<String, Object> createMessage) {
+		return networkID((String) createMessage.get("nw_entityID"), (String) createMessage.get("nw_ownerID"));
+	}
+
 	@Override
 	public HashMap<String, Object> nwCreate() {
 		// Setup the data map
 		createDM();
+		storeNetworked();
 		// Create an entity data map
 		HashMap<String, Object> entityData = new HashMap<>();
 		// PROP #0
@@ -55,13 +102,13 @@ public abstract class NWEntity extends Entity implements NWInterface {
 		// PROP #1
 		entityData.put("nw_dataMap", new HashMap<>(dataMap));
 		// PROP #2
-		entityData.put("nw_size", size);
+		entityData.put("nw_size", new Vector2(size));
 		// PROP #3
 		entityData.put("nw_ownerID", ownerID);
 		// PROP #4
 		entityData.put("nw_spritesheetID", spriteSheetID);
 		// PROP #5
-		entityData.put("nw_position", getPos());
+		entityData.put("nw_position", new Vector2(getPos()));
 		// After the creation we clear the data map
 		dataMap.clear();
 		// Then return the message
@@ -100,21 +147,29 @@ public abstract class NWEntity extends Entity implements NWInterface {
 			Vector2 pos = (Vector2) msg.get("nw_position");
 			setPosition(pos);
 		}
+		loadNetworked();
 		receiveDMCreate();
 	}
 
+	/**
+	 * Only what changed since the last update message is in it. The first one has everything.<br>
+	 * The server merges them over the full state it keeps for the entity.
+	 */
 	@Override
 	public HashMap<String, Object> nwUpdate() {
 		// Setup the data map
-		updateDM();
+		prepareUpdate();
 		// Create an entity data map
 		HashMap<String, Object> entityData = new HashMap<>();
 		// PROP #0
 		entityData.put("nw_entityID", entityID);
-		// PROP #1
-		entityData.put("nw_dataMap", dataMap);
+		// PROP #1 - only the changed keys
+		putChangedDM(entityData);
 		// PROP #2
-		entityData.put("nw_position", getPos());
+		if (nwChanged("nw_position"))
+			entityData.put("nw_position", new Vector2(getPos()));
+		// PROP #3 - only when it falls asleep or wakes up
+		markSent(entityData);
 		// proprieties.add(json.toJson(b2d_body, B2DBody.class)); Does Box2D changes the body?
 		return entityData;
 	}
@@ -136,11 +191,196 @@ public abstract class NWEntity extends Entity implements NWInterface {
 			if (body != null) {
 				Vector2 pos = (Vector2) msg.get("nw_position");
 				setPosition(pos);
+				receiveRest(msg);
 			}
 		}
+		loadNetworked();
 		receiveDMUpdate();
 	}
 
+	/*
+	 * Sleep and dirty state
+	 */
+
+	/**
+	 * @return true if this entity has a Box2D body and it is sleeping.
+	 */
+	public boolean isResting() {
+		return body != null && !body.isAwake();
+	}
+
+	/**
+	 * @return true if something networked changed since the last update message.
+	 */
+	public boolean isNWDirty() {
+		return nwFullUpdate || !nwDirtyProps.isEmpty() || !nwDirtyDM.isEmpty();
+	}
+
+	/**
+	 * Flag this entity to be sent whole on the next snapshot even if it is resting.
+	 */
+	public void markNWDirty() {
+		nwFullUpdate = true;
+	}
+
+	/**
+	 * Flag an update message propriety to be sent on the next snapshot.
+	 *
+	 * @param property
+	 *            The message key, like "nw_position"
+	 */
+	protected void markNWDirty(String property) {
+		nwDirtyProps.add(property);
+	}
+
+	/**
+	 * @return true if the next update message must have this propriety.
+	 */
+	protected boolean nwChanged(String property) {
+		return nwFullUpdate || nwDirtyProps.contains(property);
+	}
+
+	/**
+	 * The server calls this before {@link #nwUpdate()} to know if an update message is needed.<br>
+	 * One is needed when a propriety, a data map key or the position changed, or when the body<br>
+	 * fell asleep or woke up. Calls {@link #updateDM()} to find out if the data map changed.
+	 *
+	 * @return true if an update message should be made for this entity.
+	 */
+	public boolean nwShouldUpdate() {
+		prepareUpdate();
+		boolean should = isNWDirty() || isResting() != nwRestSent;
+		// nwUpdate won't call updateDM again
+		nwPrepared = should;
+		return should;
+	}
+
+	/**
+	 * Calls updateDM and finds out if the body moved, once for each update message.
+	 */
+	protected void prepareUpdate() {
+		if (nwPrepared)
+			return;
+		updateDM();
+		storeNetworked();
+		// Moved by the physics
+		if (body != null && !nwSentPos.equals(getPos()))
+			markNWDirty("nw_position");
+	}
+
+	/**
+	 * Puts the changed data map keys in the update message, or all of them on a full update.
+	 *
+	 * @param entityData
+	 *            The update message beeing made.
+	 */
+	protected void putChangedDM(HashMap<String, Object> entityData) {
+		if (nwFullUpdate) {
+			entityData.put("nw_dataMap", new HashMap<>(dataMap));
+		} else if (!nwDirtyDM.isEmpty()) {
+			HashMap<String, Object> changed = new HashMap<>(nwDirtyDM.size() * 2);
+			for (String key : nwDirtyDM)
+				changed.put(key, dataMap.get(key));
+			entityData.put("nw_dataMap", changed);
+		}
+	}
+
+	/**
+	 * Clears the dirty flags after an update message was made. Flags it as the "at rest"<br>
+	 * message if the body fell asleep, or removes the flag if it woke up.
+	 *
+	 * @param entityData
+	 *            The update message beeing made.
+	 */
+	protected void markSent(HashMap<String, Object> entityData) {
+		if (isResting()) {
+			if (!nwRestSent || nwFullUpdate)
+				entityData.put("nw_resting", true);
+			nwRestSent = true;
+		} else if (nwRestSent) {
+			ArrayList<String> removed = new ArrayList<>();
+			removed.add("nw_resting");
+			entityData.put(SnapshotDelta.REMOVED, removed);
+			nwRestSent = false;
+		}
+		if (body != null)
+			nwSentPos.set(getPos());
+		nwFullUpdate = false;
+		nwPrepared = false;
+		nwDirtyProps.clear();
+		nwDirtyDM.clear();
+	}
+
+	/**
+	 * Puts the local body to sleep when the server says it is at rest.<br>
+	 * No more updates will come for it until it wakes up on the server.
+	 *
+	 * @param msg
+	 *            The update message received.
+	 */
+	protected void receiveRest(HashMap<String, Object> msg) {
+		if (msg.get("nw_resting") != null)
+			body.setAwake(false);
+	}
+
+	/*
+	 * Networked fields
+	 */
+
+	/**
+	 * @return The schema of the {@link Networked} fields of this class.
+	 */
+	protected NWSchema getSchema() {
+		if (nwSchema == null)
+			nwSchema = NWSchema.of(getClass());
+		return nwSchema;
+	}
+
+	/**
+	 * Puts the {@link Networked} fields in the data map. Called after createDM and updateDM.
+	 */
+	protected void storeNetworked() {
+		if (!getSchema().isEmpty())
+			nwSchema.store(this);
+	}
+
+	/**
+	 * Reads the {@link Networked} fields from the data map. Called before receiveDMCreate and receiveDMUpdate.
+	 */
+	protected void loadNetworked() {
+		if (!getSchema().isEmpty())
+			nwSchema.load(this);
+	}
+
+	/**
+	 * Puts a value in the data map, flagging the key dirty only if the value changed.
+	 *
+	 * @param name
+	 *            The name or key to the data
+	 * @param value
+	 *            The data itself
+	 */
+	protected void putDM(String name, Object value) {
+		Object old = dataMap.put(name, value);
+		if (old == null ? value != null : !old.equals(value))
+			nwDirtyDM.add(name);
+	}
+
+	/**
+	 * Teleporting doesn't wake a Box2D body, so flag the move to be sent.
+	 */
+	@Override
+	public void setPosition(Vector2 vector2) {
+		super.setPosition(vector2);
+		markNWDirty("nw_position");
+	}
+
+	@Override
+	public void setPosition(float x, float y) {
+		super.setPosition(x, y);
+		markNWDirty("nw_position");
+	}
+
 	/*
 	 * Data map mehtods
 	 */
@@ -162,7 +402,7 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 *            The data itself
 	 */
 	public void setNWBool(String name, Boolean value) {
-		dataMap.put(name, value);
+		putDM(name, value);
 	}
 
 	/**
@@ -208,7 +448,7 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 *            The data itself
 	 */
 	public void setNWFloat(String name, Float value) {
-		dataMap.put(name, value);
+		putDM(name, value);
 	}
 
 	/**
@@ -254,7 +494,7 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 *            The data itself
 	 */
 	public void setNWInt(String name, Integer value) {
-		dataMap.put(name, value);
+		putDM(name, value);
 	}
 
 	/**
@@ -300,7 +540,7 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 *            The data itself
 	 */
 	public void setNWString(String name, String value) {
-		dataMap.put(name, value);
+		putDM(name, value);
 	}
 
 	/**
@@ -347,7 +587,7 @@ public abstract class NWEntity extends Entity implements NWInterface {
 	 *            The data itself
 	 */
 	public void setNWObject(String name, Object value) {
-		dataMap.put(name, value);
+		putDM(name, value);
 	}
 
 	/**
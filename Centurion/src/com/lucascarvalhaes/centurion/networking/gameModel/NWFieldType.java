@@ -0,0 +1,13 @@
+package com.lucascarvalhaes.centurion.networking.gameModel;
+
+/**
+ * How a registered message propriety is written on the wire.<br>
+ * POSITION and SIZE are vectors and ANGLE a float (radians) quantized by the networking Quantizer.<br>
+ * UINT is a positive varint.
+ * 
+ * @author Lucas M Carvalhaes
+ * 
+ */
+public enum NWFieldType {
+	STRING, INT, UINT, LONG, FLOAT, BOOLEAN, VECTOR, POSITION, SIZE, ANGLE, MAP, STRING_LIST
+}
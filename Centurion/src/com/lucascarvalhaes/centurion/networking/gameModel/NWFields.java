@@ -0,0 +1,154 @@
+package com.lucascarvalhaes.centurion.networking.gameModel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * The registry of message proprieties with a known type.<br>
+ * Each registered key gets a small ID, so the message serializers write the ID and a typed<br>
+ * value instead of the key string and a class tagged object. Keys that are not registered<br>
+ * still work, they just cost more.<br>
+ * The internal proprieties of {@link NWEntity} and {@link NWLiveEntity} are always registered.<br>
+ * The {@link Networked} fields of the classes given to<br>
+ * {@link com.lucascarvalhaes.centurion.networking.Messaging#setEntityTypes(Class...)} are registered with the<br>
+ * Kryo registrations, in that order.<br>
+ * <b>Register your keys and classes in the same order on the server and on the clients,<br>
+ * before connecting. Just like kryo registrations.</b> The server refuses logins with another {@link #checksum()}.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NWFields {
+
+	/**
+	 * ID written for keys that are not registered. The key string follows.
+	 */
+	public static final int							UNKNOWN	= 0;
+
+	private static final HashMap<String, Integer>	ids		= new HashMap<>();
+	private static final ArrayList<String>			keys	= new ArrayList<>();
+	private static final ArrayList<NWFieldType>		types	= new ArrayList<>();
+
+	static {
+		// ID 0 is for unknown keys
+		keys.add(null);
+		types.add(null);
+
+		// Entity proprieties
+		register("nw_entityID", NWFieldType.STRING);
+		register("nw_dataMap", NWFieldType.MAP);
+		register("nw_size", NWFieldType.SIZE);
+		register("nw_ownerID", NWFieldType.STRING);
+		register("nw_spritesheetID", NWFieldType.STRING);
+		register("nw_position", NWFieldType.POSITION);
+		register("nw_resting", NWFieldType.BOOLEAN);
+		// Live entity proprieties
+		register("nw_health", NWFieldType.UINT);
+		register("nw_maxHealth", NWFieldType.UINT);
+		// Deltas
+		register("nw_removed", NWFieldType.STRING_LIST);
+		register("nw_dataMapRemoved", NWFieldType.STRING_LIST);
+		// Network ID, on create messages
+		register("nw_netID", NWFieldType.UINT);
+	}
+
+	/**
+	 * Registers a message or data map key.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param type
+	 *            The type of its values.
+	 * @return The ID of the key
+	 */
+	public static synchronized int register(String key, NWFieldType type) {
+		Integer id = ids.get(key);
+		if (id != null) {
+			if (types.get(id) != type)
+				throw new IllegalArgumentException("Key " + key + " already registered as " + types.get(id));
+			return id;
+		}
+		id = keys.size();
+		ids.put(key, id);
+		keys.add(key);
+		types.add(type);
+		return id;
+	}
+
+	/**
+	 * Registers all {@link Networked} fields of an entity class and its superclasses.
+	 *
+	 * @param entityClass
+	 *            The entity class.
+	 */
+	public static synchronized void register(Class<? extends NWEntity> entityClass) {
+		for (Field field : NWSchema.of(entityClass).getFields())
+			register(field.getName(), typeOf(field.getType()));
+	}
+
+	/**
+	 * @param key
+	 *            A message key.
+	 * @return Its ID or {@link #UNKNOWN}
+	 */
+	public static synchronized int idOf(String key) {
+		Integer id = ids.get(key);
+		return id == null ? UNKNOWN : id;
+	}
+
+	/**
+	 * @return A hash of the registered keys and types, in order. Two endpoints with the same one give the<br>
+	 *         same IDs to the same keys.
+	 */
+	public static synchronized int checksum() {
+		int hash = 1;
+		// From ID 1, ID 0 is the unknown key. Type names, enum hashes change between runs.
+		for (int i = 1; i < keys.size(); i++) {
+			hash = 31 * hash + keys.get(i).hashCode();
+			hash = 31 * hash + types.get(i).name().hashCode();
+		}
+		return hash;
+	}
+
+	/**
+	 * @param id
+	 *            A registered ID.
+	 * @return The key or null if the ID is not registered.
+	 */
+	public static synchronized String keyOf(int id) {
+		return id > 0 && id < keys.size() ? keys.get(id) : null;
+	}
+
+	/**
+	 * @param id
+	 *            A registered ID.
+	 * @return The type of the values or null if the ID is not registered.
+	 */
+	public static synchronized NWFieldType typeOf(int id) {
+		return id > 0 && id < types.size() ? types.get(id) : null;
+	}
+
+	/**
+	 * @param cl
+	 *            A java field type.
+	 * @return The wire type for it.
+	 */
+	public static NWFieldType typeOf(Class<?> cl) {
+		if (cl == int.class || cl == Integer.class)
+			return NWFieldType.INT;
+		if (cl == long.class || cl == Long.class)
+			return NWFieldType.LONG;
+		if (cl == float.class || cl == Float.class)
+			return NWFieldType.FLOAT;
+		if (cl == boolean.class || cl == Boolean.class)
+			return NWFieldType.BOOLEAN;
+		if (cl == String.class)
+			return NWFieldType.STRING;
+		if (cl == Vector2.class)
+			return NWFieldType.VECTOR;
+		throw new IllegalArgumentException("Networked fields can't be of type " + cl.getName());
+	}
+}
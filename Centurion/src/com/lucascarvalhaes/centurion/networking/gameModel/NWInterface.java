@@ -8,7 +8,8 @@ public interface NWInterface {
 	 * Implement to create a method that generates the creation message data.<br>
 	 * This data is a string (JSon is a good idea) and must be returned.<br>
 	 * This is the data that the server or client will use to make an instance of this entity.<br>
-	 * This can be sent either to the server or to the client.
+	 * This can be sent either to the server or to the client.<br>
+	 * The message leaves the tick that made it, so put copies of mutable values in it, never the live ones.
 	 * 
 	 * @return The packaged message string.
 	 */
@@ -17,7 +18,8 @@ public interface NWInterface {
 	/**
 	 * Implement to provide a update message for this entity in the server.<br>
 	 * The server will call this method to generate the update information on each snapshot<br>
-	 * assembly.
+	 * assembly.<br>
+	 * Same as {@link #nwCreate()}: copies of mutable values, never the live ones.
 	 * 
 	 * @return The packaged message string.
 	 */
@@ -52,6 +52,7 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 	public HashMap<String, Object> nwCreate() {
 		// Setup the data map
 		createDM();
+		storeNetworked();
 		// Create an entity data map
 		HashMap<String, Object> entityData = new HashMap<>();
 		// PROP #0
@@ -59,13 +60,13 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 		// PROP #1
 		entityData.put("nw_dataMap", new HashMap<>(dataMap));
 		// PROP #2
-		entityData.put("nw_size", size);
+		entityData.put("nw_size", new Vector2(size));
 		// PROP #3
 		entityData.put("nw_ownerID", ownerID);
 		// PROP #4
 		entityData.put("nw_spritesheetID", spriteSheetID);
 		// PROP #5
-		entityData.put("nw_position", getPos());
+		entityData.put("nw_position", new Vector2(getPos()));
 		// PROP #6
 		entityData.put("nw_health", health);
 		// PROP #7
@@ -112,23 +113,32 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 		health = (int) msg.get("nw_health");
 		// #7 MAX HEALTH
 		maxHealth = (int) msg.get("nw_maxHealth");
+		loadNetworked();
 		receiveDMCreate();
 	}
 
+	/**
+	 * Only what changed since the last update message is in it. The first one has everything.<br>
+	 * The server merges them over the full state it keeps for the entity.
+	 */
 	@Override
 	public HashMap<String, Object> nwUpdate() {
 		// Setup the data map
-		updateDM();
+		prepareUpdate();
 		// Create an entity data map
 		HashMap<String, Object> entityData = new HashMap<>();
 		// PROP #0
 		entityData.put("nw_entityID", entityID);
-		// PROP #1
-		entityData.put("nw_dataMap", dataMap);
+		// PROP #1 - only the changed keys
+		putChangedDM(entityData);
 		// PROP #2
-		entityData.put("nw_position", getPos());
+		if (nwChanged("nw_position"))
+			entityData.put("nw_position", new Vector2(getPos()));
 		// PROP #3
-		entityData.put("nw_health", health);
+		if (nwChanged("nw_health"))
+			entityData.put("nw_health", health);
+		// PROP #4 - only when it falls asleep or wakes up
+		markSent(entityData);
 		// proprieties.add(json.toJson(b2d_body, B2DBody.class)); Does Box2D changes the body?
 		return entityData;
 	}
@@ -150,10 +160,12 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 			if (body != null) {
 				Vector2 pos = (Vector2) msg.get("nw_position");
 				setPosition(pos);
+				receiveRest(msg);
 			}
 			// Get the health
 			health = (int) msg.get("nw_health");
 		}
+		loadNetworked();
 		receiveDMUpdate();
 	}
 
@@ -179,6 +191,8 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 	 * Sets the healt to 0
 	 */
 	public void die() {
+		if (health != 0)
+			markNWDirty("nw_health");
 		health = 0;
 	}
 
@@ -208,6 +222,8 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 	 *            The new health to set
 	 */
 	public void setHealth(int health) {
+		if (health != this.health)
+			markNWDirty("nw_health");
 		if (health > maxHealth)
 			setHealth(maxHealth);
 		else if (health < 0)
@@ -236,8 +252,10 @@ public abstract class NWLiveEntity extends NWEntity implements NWInterface {
 		if (maxHealth > 0) {
 			this.maxHealth = maxHealth;
 			// Lock the health in the boudaries
-			if (health > maxHealth)
+			if (health > maxHealth) {
 				health = maxHealth;
+				markNWDirty("nw_health");
+			}
 		}
 	}
 }
@@ -0,0 +1,125 @@
+package com.lucascarvalhaes.centurion.networking.gameModel;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * The {@link Networked} fields of an entity class, in a fixed order.<br>
+ * Moves the fields into the data map before a message is made and back after one is received.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NWSchema {
+
+	private static final HashMap<Class<?>, NWSchema>	schemas	= new HashMap<>();
+
+	/**
+	 * The fields, superclass fields first and then by name
+	 */
+	private final Field[]								fields;
+
+	private NWSchema(Class<?> cl) {
+		ArrayList<Field> found = new ArrayList<>();
+		// Walk up to NWEntity
+		ArrayList<Class<?>> hierarchy = new ArrayList<>();
+		for (Class<?> c = cl; c != null && c != Object.class; c = c.getSuperclass())
+			hierarchy.add(0, c);
+
+		for (Class<?> c : hierarchy) {
+			ArrayList<Field> own = new ArrayList<>();
+			for (Field f : c.getDeclaredFields()) {
+				if (f.isAnnotationPresent(Networked.class) && !Modifier.isStatic(f.getModifiers())) {
+					NWFields.typeOf(f.getType()); // Fails early on unsupported types
+					f.setAccessible(true);
+					own.add(f);
+				}
+			}
+			Collections.sort(own, new Comparator<Field>() {
+				@Override
+				public int compare(Field a, Field b) {
+					return a.getName().compareTo(b.getName());
+				}
+			});
+			found.addAll(own);
+		}
+		fields = found.toArray(new Field[found.size()]);
+	}
+
+	/**
+	 * @param cl
+	 *            An entity class.
+	 * @return The schema of the class. Made once and cached.
+	 */
+	public static synchronized NWSchema of(Class<?> cl) {
+		NWSchema schema = schemas.get(cl);
+		if (schema == null) {
+			schema = new NWSchema(cl);
+			schemas.put(cl, schema);
+		}
+		return schema;
+	}
+
+	/**
+	 * Puts the networked fields of the entity in its data map.
+	 *
+	 * @param e
+	 *            The entity.
+	 */
+	public void store(NWEntity e) {
+		try {
+			for (Field f : fields) {
+				Object value = f.get(e);
+				// Vectors are copied so the data map doesn't change with the field
+				if (value instanceof Vector2)
+					value = new Vector2((Vector2) value);
+				e.putDM(f.getName(), value);
+			}
+		} catch (IllegalAccessException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the networked fields of the entity from its data map.<br>
+	 * Fields missing in the data map are left as they are.
+	 *
+	 * @param e
+	 *            The entity.
+	 */
+	public void load(NWEntity e) {
+		try {
+			for (Field f : fields) {
+				Object value = e.dataMap.get(f.getName());
+				if (value == null)
+					continue;
+				if (value instanceof Vector2 && f.get(e) != null)
+					((Vector2) f.get(e)).set((Vector2) value);
+				else
+					f.set(e, value);
+			}
+		} catch (IllegalAccessException | IllegalArgumentException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The networked fields in their fixed order.
+	 */
+	public Field[] getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return true if the class has networked fields.
+	 */
+	public boolean isEmpty() {
+		return fields.length == 0;
+	}
+}
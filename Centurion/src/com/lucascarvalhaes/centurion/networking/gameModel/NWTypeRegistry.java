@@ -0,0 +1,140 @@
+package com.lucascarvalhaes.centurion.networking.gameModel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The entity classes the game sends over the network.<br>
+ * Each registered class gets a type ID, sent in the create messages instead of the class name, and a<br>
+ * factory that makes instances without looking the class up each time.<br>
+ * <b>Register the same classes in the same order on the server and on the clients</b>, before<br>
+ * connecting. {@link com.lucascarvalhaes.centurion.networking.Messaging#setEntityTypes(Class...)} does it<br>
+ * with the Kryo registrations. The server refuses logins with another {@link #checksum()}.<br>
+ * Classes not registered still work, by name, and get a cached constructor on their first instance.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class NWTypeRegistry {
+
+	/**
+	 * The type ID of the classes not registered
+	 */
+	public static final int	NONE	= 0;
+
+	/**
+	 * Makes instances of an entity class.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public interface Factory {
+		public NWEntity make();
+	}
+
+	private static final ArrayList<String>							names		= new ArrayList<>();
+	private static final HashMap<String, Integer>					ids			= new HashMap<>();
+	private static final ConcurrentHashMap<String, Factory>			factories	= new ConcurrentHashMap<>();
+
+	/**
+	 * Registers an entity class made with its public no argument constructor.
+	 *
+	 * @return Its type ID.
+	 */
+	public static int register(Class<? extends NWEntity> type) {
+		return register(type, constructorOf(type));
+	}
+
+	/**
+	 * Registers an entity class with a factory.
+	 *
+	 * @return Its type ID. The same if it was registered already, with the new factory.
+	 */
+	public static synchronized int register(Class<? extends NWEntity> type, Factory factory) {
+		String name = type.getName();
+		factories.put(name, factory);
+		Integer id = ids.get(name);
+		if (id != null)
+			return id;
+		names.add(name);
+		ids.put(name, names.size());
+		return names.size();
+	}
+
+	/**
+	 * @return The type ID of a class, or {@link #NONE} if it is not registered.
+	 */
+	public static synchronized int idOf(String className) {
+		Integer id = ids.get(className);
+		return id == null ? NONE : id;
+	}
+
+	/**
+	 * @return The class name of a type ID, or null if there is none.
+	 */
+	public static synchronized String nameOf(int typeID) {
+		return typeID > 0 && typeID <= names.size() ? names.get(typeID - 1) : null;
+	}
+
+	/**
+	 * @return A hash of the registered class names, in order. Two endpoints with the same one give the<br>
+	 *         same type IDs to the same classes.
+	 */
+	public static synchronized int checksum() {
+		return names.hashCode();
+	}
+
+	/**
+	 * Makes an instance of an entity class.
+	 *
+	 * @return The instance, or null if the class can't be made or is not an entity.
+	 */
+	public static NWEntity make(String className) {
+		if (className == null)
+			return null;
+		Factory factory = factories.get(className);
+		if (factory == null) {
+			try {
+				Class<?> type = Class.forName(className);
+				if (!NWEntity.class.isAssignableFrom(type))
+					return null;
+				factory = constructorOf(type.asSubclass(NWEntity.class));
+			} catch (ClassNotFoundException | RuntimeException e) {
+				System.out.println("COULDN'T MAKE!");
+				e.printStackTrace();
+				return null;
+			}
+			factories.putIfAbsent(className, factory);
+		}
+		return factory.make();
+	}
+
+	/**
+	 * @return A factory calling the public no argument constructor through a method handle.
+	 */
+	private static Factory constructorOf(Class<? extends NWEntity> type) {
+		final MethodHandle constructor;
+		try {
+			constructor = MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class))
+					.asType(MethodType.methodType(NWEntity.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new IllegalArgumentException(type.getName() + " has no public constructor without arguments", e);
+		}
+		return new Factory() {
+			@Override
+			public NWEntity make() {
+				try {
+					return (NWEntity) constructor.invokeExact();
+				} catch (Throwable e) {
+					System.out.println("COULDN'T MAKE!");
+					e.printStackTrace();
+					return null;
+				}
+			}
+		};
+	}
+}
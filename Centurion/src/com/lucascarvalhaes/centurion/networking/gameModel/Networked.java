@@ -0,0 +1,22 @@
+package com.lucascarvalhaes.centurion.networking.gameModel;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link NWEntity} subclass to be synchronized to the clients.<br>
+ * The field is put in the data map under its own name before each create and update<br>
+ * message and read back from it after each message is received.<br>
+ * Supported types: boolean, int, long, float, String and Vector2 (and their boxes).<br>
+ * Give the class to {@link com.lucascarvalhaes.centurion.networking.Messaging#setEntityTypes(Class...)}<br>
+ * on both sides to send the fields as compact typed values instead of named objects.
+ * 
+ * @author Lucas M Carvalhaes
+ * 
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Networked {
+}
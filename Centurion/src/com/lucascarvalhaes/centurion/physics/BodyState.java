@@ -0,0 +1,97 @@
+package com.lucascarvalhaes.centurion.physics;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+
+/**
+ * The transform of a body on the last two physics steps.<br>
+ * Used to interpolate the body between steps when physics runs at a fixed rate<br>
+ * and rendering or networking run at another.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class BodyState {
+
+	private static final float	PI		= (float) Math.PI;
+	private static final float	TWO_PI	= PI * 2;
+
+	/**
+	 * Transform before the last step
+	 */
+	public float	prevX, prevY, prevAngle;
+	/**
+	 * Transform after the last step
+	 */
+	public float	curX, curY, curAngle;
+
+	/**
+	 * Makes a state already at rest in the body current transform.
+	 *
+	 * @param body
+	 *            The body to read from.
+	 */
+	public BodyState(Body body) {
+		snap(body);
+	}
+
+	/**
+	 * Call before a step. The current transform becomes the previous.
+	 */
+	public void shift() {
+		prevX = curX;
+		prevY = curY;
+		prevAngle = curAngle;
+	}
+
+	/**
+	 * Call after a step. Reads the new current transform from the body.
+	 *
+	 * @param body
+	 *            The body to read from.
+	 */
+	public void capture(Body body) {
+		Vector2 pos = body.getPosition();
+		curX = pos.x;
+		curY = pos.y;
+		curAngle = body.getAngle();
+	}
+
+	/**
+	 * Makes both transforms equal to the body transform.<br>
+	 * Use after teleporting a body so it doesn't slide from the old place.
+	 *
+	 * @param body
+	 *            The body to read from.
+	 */
+	public void snap(Body body) {
+		capture(body);
+		shift();
+	}
+
+	/**
+	 * @param alpha
+	 *            0 is the previous step and 1 the current one.
+	 * @param out
+	 *            Where to write the position.
+	 * @return out, for chaining
+	 */
+	public Vector2 getPosition(float alpha, Vector2 out) {
+		return out.set(prevX + (curX - prevX) * alpha, prevY + (curY - prevY) * alpha);
+	}
+
+	/**
+	 * @param alpha
+	 *            0 is the previous step and 1 the current one.
+	 * @return The angle in radians, taking the shortest way around.
+	 */
+	public float getAngle(float alpha) {
+		float diff = (curAngle - prevAngle) % TWO_PI;
+		// Wrap to [-PI, PI]
+		if (diff > PI)
+			diff -= TWO_PI;
+		else if (diff < -PI)
+			diff += TWO_PI;
+		return prevAngle + diff * alpha;
+	}
+}
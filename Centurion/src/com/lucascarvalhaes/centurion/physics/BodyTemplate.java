@@ -0,0 +1,257 @@
+package com.lucascarvalhaes.centurion.physics;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.CircleShape;
+import com.badlogic.gdx.physics.box2d.Fixture;
+import com.badlogic.gdx.physics.box2d.FixtureDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.Shape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Disposable;
+import com.lucascarvalhaes.centurion.model.Entity;
+
+/**
+ * A reusable recipe for Box2D bodies.<br>
+ * The body definition, the fixture definition and the shape are built only once<br>
+ * and every body baked from this template shares them. Box2D copies the definitions<br>
+ * and clones the shape when a body is created, so reusing them is safe.<br>
+ * Register templates for your entity classes in the {@link PhysicsManagerComponent}.<br>
+ * <b>The template owns a native shape. Call {@link #dispose()} when you are done with it.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class BodyTemplate implements Disposable {
+
+	/**
+	 * The body definition shared by all bodies of this template
+	 */
+	protected final BodyDef		bodyDef		= new BodyDef();
+	/**
+	 * The fixture definition shared by all bodies of this template
+	 */
+	protected final FixtureDef	fixtureDef	= new FixtureDef();
+	/**
+	 * The shape. Built once and cloned by Box2D for each fixture.
+	 */
+	protected final Shape		shape;
+
+	/**
+	 * Makes a dynamic template with the shape passed.<br>
+	 * The template takes ownership of the shape and disposes it.
+	 *
+	 * @param shape
+	 *            The shape all bodies of this template will have.
+	 */
+	public BodyTemplate(Shape shape) {
+		this.shape = shape;
+		bodyDef.type = BodyType.DynamicBody;
+		fixtureDef.shape = shape;
+	}
+
+	/**
+	 * Makes a dynamic circle template.
+	 *
+	 * @param radius
+	 *            The circle radius.
+	 * @return The new template
+	 */
+	public static BodyTemplate circle(float radius) {
+		CircleShape circle = new CircleShape();
+		circle.setRadius(radius);
+		return new BodyTemplate(circle);
+	}
+
+	/**
+	 * Makes a dynamic box template.
+	 *
+	 * @param halfWidth
+	 *            Half of the box width.
+	 * @param halfHeight
+	 *            Half of the box height.
+	 * @return The new template
+	 */
+	public static BodyTemplate box(float halfWidth, float halfHeight) {
+		PolygonShape box = new PolygonShape();
+		box.setAsBox(halfWidth, halfHeight);
+		return new BodyTemplate(box);
+	}
+
+	/**
+	 * The same body {@link PhysicsController#createTestBody(World, Entity)} makes.<br>
+	 * A dynamic circle of radius 6 at (100, 500) that bounces a little bit.
+	 *
+	 * @return The new template
+	 */
+	public static BodyTemplate makeDefault() {
+		return circle(6).position(100, 500).density(0.25f).friction(0.2f).restitution(0.6f);
+	}
+
+	/**
+	 * Bake a body from this template.
+	 *
+	 * @param world
+	 *            The world to create the body in. Must not be locked.
+	 * @param e
+	 *            The entity that will be the body user data.
+	 * @return The new body
+	 */
+	public Body createBody(World world, Entity e) {
+		Body body = world.createBody(bodyDef);
+		body.createFixture(fixtureDef);
+		body.setUserData(e);
+		return body;
+	}
+
+	/**
+	 * Bake a body from this template with another body type.<br>
+	 * Not thread safe: the shared body definition is changed during the call.
+	 *
+	 * @param world
+	 *            The world to create the body in. Must not be locked.
+	 * @param e
+	 *            The entity that will be the body user data.
+	 * @param type
+	 *            The type of the new body.
+	 * @return The new body
+	 */
+	public Body createBody(World world, Entity e, BodyType type) {
+		BodyType templateType = bodyDef.type;
+		bodyDef.type = type;
+		try {
+			return createBody(world, e);
+		} finally {
+			bodyDef.type = templateType;
+		}
+	}
+
+	/**
+	 * Remakes a body in another world, with the same definition, fixtures, transform and motion.<br>
+	 * For bodies moving between worlds, whether they came from a template or not.
+	 *
+	 * @param source
+	 *            The body to copy. Still alive, Box2D clones its shapes.
+	 * @param world
+	 *            The world to create the copy in. Must not be locked.
+	 * @param type
+	 *            The type of the copy.
+	 * @return The new body, with the user data of the source.
+	 */
+	public static Body copyBody(Body source, World world, BodyType type) {
+		BodyDef def = new BodyDef();
+		def.type = type;
+		def.position.set(source.getPosition());
+		def.angle = source.getAngle();
+		def.linearVelocity.set(source.getLinearVelocity());
+		def.angularVelocity = source.getAngularVelocity();
+		def.linearDamping = source.getLinearDamping();
+		def.angularDamping = source.getAngularDamping();
+		def.allowSleep = source.isSleepingAllowed();
+		def.awake = source.isAwake();
+		def.fixedRotation = source.isFixedRotation();
+		def.bullet = source.isBullet();
+		def.active = source.isActive();
+		def.gravityScale = source.getGravityScale();
+		Body body = world.createBody(def);
+
+		FixtureDef fixture = new FixtureDef();
+		for (Fixture f : source.getFixtureList()) {
+			fixture.shape = f.getShape();
+			fixture.density = f.getDensity();
+			fixture.friction = f.getFriction();
+			fixture.restitution = f.getRestitution();
+			fixture.isSensor = f.isSensor();
+			fixture.filter.categoryBits = f.getFilterData().categoryBits;
+			fixture.filter.maskBits = f.getFilterData().maskBits;
+			fixture.filter.groupIndex = f.getFilterData().groupIndex;
+			body.createFixture(fixture).setUserData(f.getUserData());
+		}
+		body.setUserData(source.getUserData());
+		return body;
+	}
+
+	/**
+	 * @return Where bodies of this template are created.
+	 */
+	public Vector2 getSpawnPosition() {
+		return bodyDef.position;
+	}
+
+	/*
+	 * TEMPLATE PROPRIETIES
+	 */
+
+	public BodyTemplate type(BodyType type) {
+		bodyDef.type = type;
+		return this;
+	}
+
+	/**
+	 * The spawn position of the bodies. Entities can be moved after creation.
+	 */
+	public BodyTemplate position(float x, float y) {
+		bodyDef.position.set(x, y);
+		return this;
+	}
+
+	public BodyTemplate density(float density) {
+		fixtureDef.density = density;
+		return this;
+	}
+
+	public BodyTemplate friction(float friction) {
+		fixtureDef.friction = friction;
+		return this;
+	}
+
+	public BodyTemplate restitution(float restitution) {
+		fixtureDef.restitution = restitution;
+		return this;
+	}
+
+	/**
+	 * Collision filtering. Bodies collide when (A.category & B.mask) != 0 and (B.category & A.mask) != 0.
+	 *
+	 * @param categoryBits
+	 *            What this body is.
+	 * @param maskBits
+	 *            What this body collides with.
+	 */
+	public BodyTemplate filter(short categoryBits, short maskBits) {
+		fixtureDef.filter.categoryBits = categoryBits;
+		fixtureDef.filter.maskBits = maskBits;
+		return this;
+	}
+
+	public BodyTemplate sensor(boolean sensor) {
+		fixtureDef.isSensor = sensor;
+		return this;
+	}
+
+	/**
+	 * Bullets get continuous collision against other dynamic bodies. Use it only for fast small bodies.
+	 */
+	public BodyTemplate bullet(boolean bullet) {
+		bodyDef.bullet = bullet;
+		return this;
+	}
+
+	public BodyTemplate fixedRotation(boolean fixedRotation) {
+		bodyDef.fixedRotation = fixedRotation;
+		return this;
+	}
+
+	public BodyTemplate damping(float linear, float angular) {
+		bodyDef.linearDamping = linear;
+		bodyDef.angularDamping = angular;
+		return this;
+	}
+
+	@Override
+	public void dispose() {
+		shape.dispose();
+	}
+}
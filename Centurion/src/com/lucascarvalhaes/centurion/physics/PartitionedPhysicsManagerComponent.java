@@ -0,0 +1,268 @@
+package com.lucascarvalhaes.centurion.physics;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.World;
+import com.lucascarvalhaes.centurion.model.Centurion;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * A physics component that splits the map in a grid of regions, each one with its own<br>
+ * Box2D world. The worlds are stepped in parallel on a worker pool.<br>
+ * After each step:<br>
+ * <li>Entities that left their region are migrated to the world of the region they are in now.</li><br>
+ * <li>Entities in the overlap band of a neighbour get a kinematic ghost body there.</li><br>
+ * Ghosts push the bodies of the neighbour but are never pushed back, so keep the overlap<br>
+ * band at least as wide as your largest body.<br>
+ * Points outside the grid belong to the closest border region.<br>
+ * <b>Contact listeners of different regions run at the same time on different threads.</b>
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class PartitionedPhysicsManagerComponent extends PhysicsManagerComponent {
+
+	/**
+	 * The regions, row by row
+	 */
+	protected final PhysicsRegion[]							regions;
+	protected final float									originX, originY, regionWidth, regionHeight;
+	protected final int										columns, rows;
+	/**
+	 * The region that owns the body of each entity
+	 */
+	protected final IdentityHashMap<NWEntity, PhysicsRegion>	owners	= new IdentityHashMap<>();
+	/**
+	 * Steps the worlds
+	 */
+	protected final ExecutorService							workers;
+
+	/**
+	 * @param originX
+	 *            The left of the grid
+	 * @param originY
+	 *            The bottom of the grid
+	 * @param regionWidth
+	 *            The width of each region
+	 * @param regionHeight
+	 *            The height of each region
+	 * @param columns
+	 *            The number of regions in x
+	 * @param rows
+	 *            The number of regions in y
+	 * @param overlap
+	 *            The width of the band around each region where ghosts are kept
+	 * @param threads
+	 *            The number of worker threads stepping the worlds
+	 */
+	public PartitionedPhysicsManagerComponent(float originX, float originY, float regionWidth,
+			float regionHeight, int columns, int rows, float overlap, int threads) {
+		this.originX = originX;
+		this.originY = originY;
+		this.regionWidth = regionWidth;
+		this.regionHeight = regionHeight;
+		this.columns = columns;
+		this.rows = rows;
+
+		// Make the grid. The first region reuses the world of the component.
+		regions = new PhysicsRegion[columns * rows];
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < columns; col++) {
+				World world = (row == 0 && col == 0) ? b2d_world : PhysicsController.getWorld();
+				Rectangle bounds = new Rectangle(
+						originX + col * regionWidth,
+						originY + row * regionHeight,
+						regionWidth,
+						regionHeight);
+				regions[row * columns + col] = new PhysicsRegion(world, bounds, overlap);
+			}
+		}
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			int	count	= 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Centurion-physics-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Finds the region that owns a point.
+	 *
+	 * @return The region. Points outside the grid go to the closest border region.
+	 */
+	public PhysicsRegion getRegion(float x, float y) {
+		int col = (int) Math.floor((x - originX) / regionWidth);
+		int row = (int) Math.floor((y - originY) / regionHeight);
+		// Clamp to the grid
+		col = Math.max(0, Math.min(columns - 1, col));
+		row = Math.max(0, Math.min(rows - 1, row));
+		return regions[row * columns + col];
+	}
+
+	/**
+	 * @return The world that owns the point.
+	 */
+	public World getWorld(float x, float y) {
+		return getRegion(x, y).getWorld();
+	}
+
+	/**
+	 * @return The region that steps a world, or null if none does.
+	 */
+	public PhysicsRegion getRegion(World world) {
+		for (PhysicsRegion region : regions)
+			if (region.getWorld() == world)
+				return region;
+		return null;
+	}
+
+	@Override
+	protected World worldFor(NWEntity e, BodyTemplate template) {
+		// No body yet, so it will be made where the template spawns it
+		Vector2 spawn = template.getSpawnPosition();
+		return getRegion(spawn.x, spawn.y).getWorld();
+	}
+
+	/**
+	 * Registers the body with the region it is in, moving it there if it was made in another world<br>
+	 * or moved after it was made.
+	 */
+	@Override
+	protected void bodyAdded(NWEntity e) {
+		Body body = e.getBody();
+		Vector2 pos = body.getPosition();
+		PhysicsRegion target = getRegion(pos.x, pos.y);
+		if (getRegion(body.getWorld()) != target)
+			moveBody(e, target);
+		owners.put(e, target);
+	}
+
+	@Override
+	protected void destroyBody(NWEntity e) {
+		super.destroyBody(e);
+		owners.remove(e);
+		for (PhysicsRegion region : regions)
+			region.removeGhost(e);
+	}
+
+	@Override
+	protected void stepWorlds(float time) {
+		// Step all worlds at the same time
+		ArrayList<Future<Void>> steps = new ArrayList<>(regions.length);
+		for (PhysicsRegion region : regions) {
+			region.stepTime = time;
+			steps.add(workers.submit(region));
+		}
+		try {
+			for (Future<Void> step : steps)
+				step.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+
+		// Back on one thread. Fix the borders.
+		migrate();
+		updateGhosts();
+	}
+
+	/**
+	 * Moves the bodies that left their region to the world of the region they are in now.
+	 */
+	protected void migrate() {
+		for (Entry<NWEntity, PhysicsRegion> entry : owners.entrySet()) {
+			NWEntity e = entry.getKey();
+			Body old = e.getBody();
+			Vector2 pos = old.getPosition();
+			PhysicsRegion target = getRegion(pos.x, pos.y);
+			if (target == entry.getValue())
+				continue;
+
+			moveBody(e, target);
+			entry.setValue(target);
+		}
+	}
+
+	/**
+	 * Remakes the body of an entity in the world of a region, keeping its shape and motion.<br>
+	 * Copied from the body itself, so bodies the game made keep their fixtures.
+	 */
+	protected void moveBody(NWEntity e, PhysicsRegion target) {
+		Body old = e.getBody();
+		Body body = BodyTemplate.copyBody(old, target.getWorld(), old.getType());
+
+		// The ghosts around the old region are updated from scratch
+		for (PhysicsRegion region : regions)
+			region.removeGhost(e);
+		old.getWorld().destroyBody(old);
+		e.replaceBody(body);
+	}
+
+	/**
+	 * Creates, moves and removes the ghosts in the overlap bands.
+	 */
+	protected void updateGhosts() {
+		for (Entry<NWEntity, PhysicsRegion> entry : owners.entrySet()) {
+			NWEntity e = entry.getKey();
+			Vector2 pos = e.getBody().getPosition();
+			int index = indexOf(entry.getValue());
+			int col = index % columns, row = index / columns;
+			// Only the neighbours can have the entity in their overlap band
+			for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+				for (int c = Math.max(0, col - 1); c <= Math.min(columns - 1, col + 1); c++) {
+					PhysicsRegion region = regions[r * columns + c];
+					if (region == entry.getValue())
+						continue;
+					if (region.inGhostBounds(pos.x, pos.y))
+						region.updateGhost(e);
+					else
+						region.removeGhost(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The index of the region in the grid.
+	 */
+	protected int indexOf(PhysicsRegion region) {
+		Rectangle bounds = region.getBounds();
+		int col = Math.round((bounds.x - originX) / regionWidth);
+		int row = Math.round((bounds.y - originY) / regionHeight);
+		return row * columns + col;
+	}
+
+	@Override
+	public void onRemove(Centurion<NWEntity> manager) {
+		super.onRemove(manager);
+		workers.shutdown();
+		owners.clear();
+		// Free the worlds made for the other regions, with their bodies and ghosts
+		for (PhysicsRegion region : regions)
+			if (region.getWorld() != b2d_world)
+				region.getWorld().dispose();
+	}
+
+	/**
+	 * @return The regions of this component, row by row.
+	 */
+	public PhysicsRegion[] getRegions() {
+		return regions;
+	}
+}
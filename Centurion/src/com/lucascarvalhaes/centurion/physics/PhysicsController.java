@@ -30,10 +30,13 @@ public class PhysicsController {
 	}
 
 	/**
-	 * This uses the body definition to bake the body.
+	 * This uses the body definition to bake the body.<br>
+	 * Allocates the definitions and the shape on every call.
 	 * 
 	 * @return
+	 * @deprecated Register a {@link BodyTemplate} in the {@link PhysicsManagerComponent} instead.
 	 */
+	@Deprecated
 	public static Body createTestBody(World world, Entity e) {
 		// Create the body definition
 		BodyDef bodyDef = new BodyDef();
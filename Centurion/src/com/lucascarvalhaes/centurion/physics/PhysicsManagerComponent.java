@@ -1,6 +1,15 @@
 package com.lucascarvalhaes.centurion.physics;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+import java.util.Set;
+
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
 import com.badlogic.gdx.physics.box2d.World;
 import com.lucascarvalhaes.centurion.model.Centurion;
 import com.lucascarvalhaes.centurion.model.EntityCointainerListener;
@@ -23,17 +32,147 @@ public class PhysicsManagerComponent extends ManagerComponentAdapter<NWEntity> {
 	 */
 	protected final World				b2d_world		= PhysicsController.getWorld();
 
+	/**
+	 * The body templates registered for each entity class.
+	 */
+	protected final HashMap<Class<?>, BodyTemplate>	templates			= new HashMap<>();
+	/**
+	 * Cache of the template found for each class (the class itself or its closest registered superclass).
+	 */
+	protected final HashMap<Class<?>, BodyTemplate>	resolvedTemplates	= new HashMap<>();
+	/**
+	 * The template used by entities with no template registered. Built when first needed.
+	 */
+	protected BodyTemplate								defaultTemplate		= null;
+
+	/*
+	 * STEPPING
+	 */
+
+	/**
+	 * Set this to true to step the world with the real delta through an accumulator.<br>
+	 * The world is stepped in fixed {@link #stepTime} substeps, as many as the delta allows.<br>
+	 * When false the world is stepped exactly once per update call (the old behaviour).
+	 */
+	public boolean										fixedTimestep		= false;
+	/**
+	 * The fixed step time in seconds.
+	 */
+	public float										stepTime			= PhysicsController.STEP_TIME;
+	/**
+	 * The max number of substeps in a single update. Time beyond this is dropped<br>
+	 * so a slow frame doesn't make the next one even slower.
+	 */
+	public int											maxSubSteps			= 5;
+	/**
+	 * Time not yet simulated, always below one step after an update.
+	 */
+	protected float										accumulator			= 0;
+	/**
+	 * How far we are between the previous and the current step. From 0 to 1.
+	 */
+	protected float										alpha				= 1;
+	/**
+	 * The transforms of the last two steps of each entity body.
+	 */
+	protected final IdentityHashMap<NWEntity, BodyState>	states				= new IdentityHashMap<>();
+
 	@Override
 	public void preUpdate(Centurion<NWEntity> manager, float delta) {
+		// The old way. One step per update.
+		if (!fixedTimestep) {
+			step(PhysicsController.STEP_TIME);
+			alpha = 1;
+			return;
+		}
+
+		// Accumulate the real time and consume it in fixed steps
+		accumulator += delta;
+		int steps = 0;
+		while (accumulator >= stepTime && steps < maxSubSteps) {
+			step(stepTime);
+			accumulator -= stepTime;
+			steps++;
+		}
+
+		// Spiral of death. Drop the whole steps we couldn't simulate, keep the fraction for the interpolation.
+		if (accumulator >= stepTime)
+			accumulator %= stepTime;
+
+		alpha = accumulator / stepTime;
+	}
+
+	/**
+	 * Steps the world once, capturing the transform of every body before and after.
+	 *
+	 * @param time
+	 *            The step time in seconds.
+	 */
+	protected void step(float time) {
+		for (BodyState state : states.values())
+			state.shift();
+
+		stepWorlds(time);
+
+		for (Entry<NWEntity, BodyState> entry : states.entrySet())
+			if (entry.getKey().hasBody())
+				entry.getValue().capture(entry.getKey().getBody());
+	}
+
+	/**
+	 * Steps the Box2D worlds of this component. Override to step more than one world.
+	 *
+	 * @param time
+	 *            The step time in seconds.
+	 */
+	protected void stepWorlds(float time) {
 		/*
 		 * Update our physics wold. A 1/45 step time, 6 velocity iterations and 2 position iterations.
 		 */
 		b2d_world.step(
-				PhysicsController.STEP_TIME,
+				time,
 				PhysicsController.VEL_ITERATIONS,
 				PhysicsController.POS_ITERATIONS);
 	}
 
+	/**
+	 * The world a new body for the entity should be created in.
+	 *
+	 * @param e
+	 *            The entity that still has no body.
+	 * @param template
+	 *            The template the body will be made from.
+	 * @return The world to create the body in.
+	 */
+	protected World worldFor(NWEntity e, BodyTemplate template) {
+		return b2d_world;
+	}
+
+	/**
+	 * Called when an entity is added, once it has a body. The body may have been made<br>
+	 * before, by {@link #createBodies(Collection)} or by the game.
+	 *
+	 * @param e
+	 *            The entity beeing added.
+	 */
+	protected void bodyAdded(NWEntity e) {
+	}
+
+	/**
+	 * Destroys the body of an entity beeing removed.<br>
+	 * The entity is left without a body so it can be added to another manager.
+	 *
+	 * @param e
+	 *            The entity beeing removed.
+	 */
+	protected void destroyBody(NWEntity e) {
+		Body body = e.getBody();
+		if (body == null)
+			return;
+		body.getWorld().destroyBody(body);
+		e.replaceBody(null);
+	}
+
 	@Override
 	public void render(Centurion<NWEntity> manager, float delta, SpriteBatch batch) {
 		// Not called! Only debug
@@ -45,20 +184,191 @@ public class PhysicsManagerComponent extends ManagerComponentAdapter<NWEntity> {
 		manager.addListener(new EntityCointainerListener<NWEntity>() {
 			@Override
 			public void onRemoving(NWEntity e) {
-				b2d_world.destroyBody(e.getBody());
+				states.remove(e);
+				destroyBody(e);
 			}
 
 			@Override
 			public void onAdding(NWEntity e) {
-				if (!e.hasBody())
-					e.setBody(PhysicsController.createTestBody(b2d_world, e));
+				if (!e.hasBody()) {
+					BodyTemplate template = getTemplate(e.getClass());
+					e.setBody(template.createBody(worldFor(e, template), e));
+				}
+				bodyAdded(e);
+				states.put(e, new BodyState(e.getBody()));
 			}
 		});
 	}
 
 	@Override
 	public void onRemove(Centurion<NWEntity> manager) {
-		// Do nothing since we are very lazy
+		// Free the native shapes of the templates, once each. A template can be registered for many classes.
+		Set<BodyTemplate> owned = Collections.newSetFromMap(new IdentityHashMap<BodyTemplate, Boolean>());
+		owned.addAll(templates.values());
+		if (defaultTemplate != null)
+			owned.add(defaultTemplate);
+		for (BodyTemplate template : owned)
+			template.dispose();
+		templates.clear();
+		resolvedTemplates.clear();
+		defaultTemplate = null;
+	}
+
+	/*
+	 * BODY TEMPLATES
+	 */
+
+	/**
+	 * Register the template used to make the bodies of an entity class.<br>
+	 * Subclasses of the class use the template too, unless they have their own.<br>
+	 * The component takes ownership of the template and disposes it on removal.
+	 *
+	 * @param entityClass
+	 *            The class of entity that will get bodies from this template.
+	 * @param template
+	 *            The template itself.
+	 */
+	public void registerBodyTemplate(Class<? extends NWEntity> entityClass, BodyTemplate template) {
+		BodyTemplate old = templates.put(entityClass, template);
+		if (old != null && old != template && !templates.containsValue(old))
+			old.dispose();
+		// Resolutions may have changed
+		resolvedTemplates.clear();
+	}
+
+	/**
+	 * Finds the template for an entity class. Walks up the class hierarchy until a registered<br>
+	 * template is found, falling back to the default template. The result is cached.
+	 *
+	 * @param entityClass
+	 *            The class of the entity.
+	 * @return The template to use. Never null.
+	 */
+	public BodyTemplate getTemplate(Class<?> entityClass) {
+		BodyTemplate template = resolvedTemplates.get(entityClass);
+		if (template != null)
+			return template;
+
+		// Search the hierarchy
+		Class<?> cl = entityClass;
+		while (cl != null && template == null) {
+			template = templates.get(cl);
+			cl = cl.getSuperclass();
+		}
+
+		// Nothing registered, use the default
+		if (template == null) {
+			if (defaultTemplate == null)
+				defaultTemplate = BodyTemplate.makeDefault();
+			template = defaultTemplate;
+		}
+
+		resolvedTemplates.put(entityClass, template);
+		return template;
+	}
+
+	/**
+	 * Bulk body creation. Makes the bodies of all entities that still don't have one.<br>
+	 * Use this before adding a wave of entities to the manager: the template lookup is<br>
+	 * done once for each run of entities of the same class.
+	 *
+	 * @param ents
+	 *            The entities to create bodies for.
+	 * @return The number of bodies created.
+	 */
+	public int createBodies(Collection<? extends NWEntity> ents) {
+		int created = 0;
+		Class<?> lastClass = null;
+		BodyTemplate template = null;
+		for (NWEntity e : ents) {
+			if (e.hasBody())
+				continue;
+			// Only look up again when the class changes
+			if (e.getClass() != lastClass) {
+				lastClass = e.getClass();
+				template = getTemplate(lastClass);
+			}
+			e.setBody(template.createBody(worldFor(e, template), e));
+			created++;
+		}
+		return created;
+	}
+
+	/**
+	 * Bulk spawn. Creates all bodies first and then adds the entities to the manager.
+	 *
+	 * @param manager
+	 *            The manager this component is installed in.
+	 * @param ents
+	 *            The entities to spawn.
+	 */
+	public void spawnAll(Centurion<NWEntity> manager, Collection<? extends NWEntity> ents) {
+		createBodies(ents);
+		for (NWEntity e : ents)
+			manager.addEntity(e);
+	}
+
+	/*
+	 * INTERPOLATION
+	 */
+
+	/**
+	 * @return How far the simulation is between the previous and the current step. From 0 to 1.
+	 */
+	public float getAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * The entity position interpolated between the last two physics steps.<br>
+	 * Renderers and snapshot builders should use this instead of the body position<br>
+	 * when {@link #fixedTimestep} is on.
+	 *
+	 * @param e
+	 *            The entity.
+	 * @param out
+	 *            Where to write the position.
+	 * @return out, or null if the entity isn't simulated by this component.
+	 */
+	public Vector2 getInterpolatedPosition(NWEntity e, Vector2 out) {
+		BodyState state = states.get(e);
+		if (state == null)
+			return null;
+		return state.getPosition(alpha, out);
+	}
+
+	/**
+	 * The entity angle interpolated between the last two physics steps.
+	 *
+	 * @param e
+	 *            The entity.
+	 * @return The angle in radians or 0 if the entity isn't simulated by this component.
+	 */
+	public float getInterpolatedAngle(NWEntity e) {
+		BodyState state = states.get(e);
+		if (state == null)
+			return 0;
+		return state.getAngle(alpha);
+	}
+
+	/**
+	 * Forget the previous transform of the entity so it doesn't slide from there.<br>
+	 * Call after teleporting the entity.
+	 *
+	 * @param e
+	 *            The entity that was moved.
+	 */
+	public void snap(NWEntity e) {
+		BodyState state = states.get(e);
+		if (state != null && e.hasBody())
+			state.snap(e.getBody());
+	}
+
+	/**
+	 * @return The Box2D world of this component.
+	 */
+	public World getWorld() {
+		return b2d_world;
 	}
 
 }
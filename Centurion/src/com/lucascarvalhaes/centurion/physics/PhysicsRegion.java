@@ -0,0 +1,108 @@
+package com.lucascarvalhaes.centurion.physics;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.Callable;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef.BodyType;
+import com.badlogic.gdx.physics.box2d.World;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * A rectangle of the map with its own Box2D world.<br>
+ * Entities inside the bounds are owned by the region. Entities owned by a neighbour<br>
+ * that are inside the overlap band get a kinematic ghost body here, so the bodies<br>
+ * of this region can collide with them.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class PhysicsRegion implements Callable<Void> {
+
+	/**
+	 * The world of this region
+	 */
+	protected final World								world;
+	/**
+	 * The area owned by this region
+	 */
+	protected final Rectangle							bounds;
+	/**
+	 * The bounds grown by the overlap band. Ghosts are kept for entities in here.
+	 */
+	protected final Rectangle							ghostBounds;
+	/**
+	 * Ghost bodies of entities owned by other regions: Entity -> Ghost
+	 */
+	protected final IdentityHashMap<NWEntity, Body>	ghosts		= new IdentityHashMap<>();
+	/**
+	 * The step time for the next {@link #call()}
+	 */
+	protected float										stepTime	= PhysicsController.STEP_TIME;
+
+	public PhysicsRegion(World world, Rectangle bounds, float overlap) {
+		this.world = world;
+		this.bounds = bounds;
+		ghostBounds = new Rectangle(
+				bounds.x - overlap,
+				bounds.y - overlap,
+				bounds.width + overlap * 2,
+				bounds.height + overlap * 2);
+	}
+
+	/**
+	 * Steps the world of this region. Called from the worker pool.
+	 */
+	@Override
+	public Void call() {
+		world.step(stepTime, PhysicsController.VEL_ITERATIONS, PhysicsController.POS_ITERATIONS);
+		return null;
+	}
+
+	/**
+	 * Creates or moves the ghost of an entity owned by another region.
+	 *
+	 * @param e
+	 *            The entity. The ghost is a kinematic copy of its body.
+	 */
+	public void updateGhost(NWEntity e) {
+		Body source = e.getBody();
+		Body ghost = ghosts.get(e);
+		if (ghost == null) {
+			ghost = BodyTemplate.copyBody(source, world, BodyType.KinematicBody);
+			ghosts.put(e, ghost);
+		}
+		// Follow the real body
+		ghost.setTransform(source.getPosition(), source.getAngle());
+		ghost.setLinearVelocity(source.getLinearVelocity());
+		ghost.setAngularVelocity(source.getAngularVelocity());
+	}
+
+	/**
+	 * Removes the ghost of an entity, if there is one.
+	 *
+	 * @param e
+	 *            The entity.
+	 */
+	public void removeGhost(NWEntity e) {
+		Body ghost = ghosts.remove(e);
+		if (ghost != null)
+			world.destroyBody(ghost);
+	}
+
+	public World getWorld() {
+		return world;
+	}
+
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * @return true if the point is inside the overlap band or the bounds of this region.
+	 */
+	public boolean inGhostBounds(float x, float y) {
+		return ghostBounds.contains(x, y);
+	}
+}
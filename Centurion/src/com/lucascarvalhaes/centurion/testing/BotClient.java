@@ -0,0 +1,178 @@
+package com.lucascarvalhaes.centurion.testing;
+
+import java.util.Random;
+
+import com.badlogic.gdx.utils.TimeUtils;
+import com.esotericsoftware.kryonet.Connection;
+import com.esotericsoftware.kryonet.Listener;
+import com.lucascarvalhaes.centurion.model.Centurion;
+import com.lucascarvalhaes.centurion.model.Player;
+import com.lucascarvalhaes.centurion.networking.GameClient;
+import com.lucascarvalhaes.centurion.networking.Messaging.ControlShip;
+import com.lucascarvalhaes.centurion.networking.Messaging.Snapshot;
+import com.lucascarvalhaes.centurion.networking.gameModel.NWEntity;
+
+/**
+ * A headless player for load tests. A {@link GameClient} with its own entity manager, never<br>
+ * rendered, played by a {@link Script}.<br>
+ * Measures how old the snapshots are when they arrive, so run it on the same machine as the server.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class BotClient {
+
+	/**
+	 * What a bot does.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public interface Script {
+		/**
+		 * Called once, after the login was sent. Spawn the ship of the bot here.
+		 */
+		public void start(BotClient bot);
+
+		/**
+		 * Called each bot tick, before the entities update.
+		 */
+		public void tick(BotClient bot, float delta);
+	}
+
+	/**
+	 * Presses and releases random directions on the ship of the bot, see {@link GameClient#shipID}.
+	 *
+	 * @author Lucas M Carvalhaes
+	 *
+	 */
+	public static class RandomScript implements Script {
+		private static final String[]	DIRECTIONS	= { ControlShip.LEFT, ControlShip.RIGHT, ControlShip.UP,
+				ControlShip.DOWN, ControlShip.FIRE };
+		private final Random			random		= new Random();
+		private final boolean[]			pressed		= new boolean[DIRECTIONS.length];
+		private final float				changes;
+
+		/**
+		 * @param changes
+		 *            How many times a second a button changes, on average
+		 */
+		public RandomScript(float changes) {
+			this.changes = changes;
+		}
+
+		@Override
+		public void start(BotClient bot) {
+		}
+
+		@Override
+		public void tick(BotClient bot, float delta) {
+			String ship = bot.getClient().shipID;
+			if (ship == null || random.nextFloat() > changes * delta)
+				return;
+			int i = random.nextInt(DIRECTIONS.length);
+			pressed[i] = !pressed[i];
+			bot.getClient().controlShip(bot.getPlayer().getPlayerID(), ship, DIRECTIONS[i], pressed[i]);
+		}
+	}
+
+	private final Centurion<NWEntity>	manager	= new Centurion<>();
+	private final GameClient			client;
+	private final Player				player;
+	private final Script				script;
+	// Snapshot latency since the last reset
+	private long						latencies, latencySum, latencyMax;
+
+	/**
+	 * Connects the bot. Call {@link #logIn()} to start playing.
+	 *
+	 * @param name
+	 *            The player name
+	 */
+	public BotClient(String name, Script script, String ip, int tcpPort, int udpPort) {
+		this.script = script;
+		player = new Player(name);
+		client = new GameClient(manager, ip, tcpPort, udpPort);
+		client.client.addListener(new Listener() {
+			@Override
+			public void received(Connection con, Object obj) {
+				if (obj instanceof Snapshot)
+					snapshotLatency(TimeUtils.millis() - ((Snapshot) obj).timestamp);
+			}
+		});
+	}
+
+	/**
+	 * Logs in and starts the script.
+	 */
+	public void logIn() {
+		client.logIn(player);
+		script.start(this);
+	}
+
+	/**
+	 * Runs the script and updates the entities.
+	 *
+	 * @param delta
+	 *            Seconds since the last tick
+	 */
+	public void tick(float delta) {
+		script.tick(this, delta);
+		// Nothing is on a screen
+		manager.update(delta, Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Disconnects the bot.
+	 */
+	public void close() {
+		client.client.close();
+		client.client.stop();
+	}
+
+	private synchronized void snapshotLatency(long millis) {
+		latencies++;
+		latencySum += millis;
+		latencyMax = Math.max(latencyMax, millis);
+	}
+
+	/**
+	 * @return The average age of the snapshots when they arrived, in milliseconds.
+	 */
+	public synchronized float getAverageLatency() {
+		return latencies == 0 ? 0 : latencySum / (float) latencies;
+	}
+
+	/**
+	 * @return The age of the oldest snapshot when it arrived, in milliseconds.
+	 */
+	public synchronized long getMaxLatency() {
+		return latencyMax;
+	}
+
+	/**
+	 * @return How many snapshot chunks arrived.
+	 */
+	public synchronized long getSnapshots() {
+		return latencies;
+	}
+
+	/**
+	 * Starts measuring the latency again.
+	 */
+	public synchronized void resetLatency() {
+		latencies = latencySum = latencyMax = 0;
+	}
+
+	public GameClient getClient() {
+		return client;
+	}
+
+	public Player getPlayer() {
+		return player;
+	}
+
+	public Centurion<NWEntity> getManager() {
+		return manager;
+	}
+}
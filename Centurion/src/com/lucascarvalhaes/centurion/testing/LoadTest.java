@@ -0,0 +1,166 @@
+package com.lucascarvalhaes.centurion.testing;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.lucascarvalhaes.centurion.networking.GameServer;
+import com.lucascarvalhaes.centurion.networking.Messaging;
+import com.lucascarvalhaes.centurion.networking.ServerMetrics;
+
+/**
+ * Starts a server and N {@link BotClient}s over loopback, optionally through a {@link LossyRelay},<br>
+ * and reports each second the tick time, the bandwidth per client, the snapshot latency and the<br>
+ * memory. Run it before each release with the game server and a script that plays like a player:<br>
+ * {@code new LoadTest(new MyServer(15), new MyScript()).run(200, 60, System.out);}<br>
+ * Or from the command line: {@code LoadTest <GameServer class> <bots> <seconds> [loss latency jitter]},<br>
+ * with the game server class having a constructor taking the step time.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class LoadTest {
+
+	/**
+	 * The relay ports, this much above the server ones
+	 */
+	public static final int				RELAY_OFFSET	= 100;
+
+	private final GameServer			server;
+	private final BotClient.Script		script;
+	private final ArrayList<BotClient>	bots			= new ArrayList<>();
+	private LossyRelay					relay			= null;
+
+	/**
+	 * @param server
+	 *            The server to test, not started
+	 * @param script
+	 *            What the bots do. The same instance plays all bots.
+	 */
+	public LoadTest(GameServer server, BotClient.Script script) {
+		this.server = server;
+		this.script = script;
+	}
+
+	/**
+	 * Puts a {@link LossyRelay} between the bots and the server.
+	 *
+	 * @see LossyRelay#setConditions(float, int, int)
+	 */
+	public void setRelay(float loss, int latency, int jitter) {
+		relay = new LossyRelay(Messaging.PORT_TCP + RELAY_OFFSET, Messaging.PORT_UDP + RELAY_OFFSET,
+				Messaging.PORT_TCP, Messaging.PORT_UDP);
+		relay.setConditions(loss, latency, jitter);
+	}
+
+	/**
+	 * Runs the test. Bots join one each tick, like a crowd.
+	 *
+	 * @param botCount
+	 *            How many bots
+	 * @param seconds
+	 *            How long to run, after all bots joined
+	 * @param out
+	 *            Where the reports go
+	 */
+	public void run(int botCount, int seconds, PrintStream out) throws IOException, InterruptedException {
+		int tcp = Messaging.PORT_TCP, udp = Messaging.PORT_UDP;
+		if (relay != null) {
+			relay.start();
+			tcp += RELAY_OFFSET;
+			udp += RELAY_OFFSET;
+		}
+		server.start();
+		final float delta = server.stepTime / 1000f;
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (bots) {
+					for (BotClient bot : bots)
+						bot.tick(delta);
+				}
+			}
+		}, 0, server.stepTime, TimeUnit.MILLISECONDS);
+
+		try {
+			for (int i = 0; i < botCount; i++) {
+				BotClient bot = new BotClient("bot" + i, script, "127.0.0.1", tcp, udp);
+				bot.logIn();
+				synchronized (bots) {
+					bots.add(bot);
+				}
+				Thread.sleep(server.stepTime);
+			}
+			out.println("Bots joined: " + botCount);
+			server.getMetrics().reset();
+			resetBots();
+			for (int s = 0; s < seconds; s++) {
+				Thread.sleep(1000);
+				out.println(report());
+				server.getMetrics().reset();
+				resetBots();
+			}
+		} finally {
+			ticker.shutdownNow();
+			synchronized (bots) {
+				for (BotClient bot : bots)
+					bot.close();
+				bots.clear();
+			}
+			server.close();
+			if (relay != null)
+				relay.stop();
+		}
+	}
+
+	/**
+	 * @return One line with what happened since the last reset, taken as one second.
+	 */
+	protected String report() {
+		ServerMetrics m = server.getMetrics();
+		float latency = 0;
+		long maxLatency = 0;
+		int clients;
+		synchronized (bots) {
+			clients = Math.max(1, bots.size());
+			for (BotClient bot : bots) {
+				latency += bot.getAverageLatency();
+				maxLatency = Math.max(maxLatency, bot.getMaxLatency());
+			}
+		}
+		Runtime rt = Runtime.getRuntime();
+		String line = String.format(
+				"bots %d | tick %.2f ms (max %.2f) | network %.2f ms (max %.2f) | per client %.1f KB/s out %.1f KB/s in"
+						+ " | snapshot latency %.0f ms (max %d) | heap %d MB",
+				bots.size(), m.getAverageTickTime(), m.getMaxTickTime(), m.getAverageNetworkTime(),
+				m.getMaxNetworkTime(), m.getBytesSent() / 1024f / clients, m.getBytesReceived() / 1024f / clients,
+				latency / clients, maxLatency, (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024));
+		if (relay != null)
+			line += String.format(" | relay dropped %d of %d", relay.getDropped(),
+					relay.getDropped() + relay.getForwarded());
+		return line;
+	}
+
+	private void resetBots() {
+		synchronized (bots) {
+			for (BotClient bot : bots)
+				bot.resetLatency();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("LoadTest <GameServer class> <bots> <seconds> [loss latency jitter]");
+			return;
+		}
+		GameServer server = (GameServer) Class.forName(args[0]).getConstructor(int.class).newInstance(15);
+		LoadTest test = new LoadTest(server, new BotClient.RandomScript(2));
+		if (args.length >= 6)
+			test.setRelay(Float.parseFloat(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+		test.run(Integer.parseInt(args[1]), Integer.parseInt(args[2]), System.out);
+	}
+}
@@ -0,0 +1,280 @@
+package com.lucascarvalhaes.centurion.testing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits between the clients and a server on loopback and makes the network worse: adds latency and<br>
+ * jitter to TCP and UDP, and drops UDP packets. The clients connect to the relay ports instead<br>
+ * of the server ones. TCP is never dropped, it would only come late.
+ *
+ * @author Lucas M Carvalhaes
+ *
+ */
+public class LossyRelay {
+
+	private final int											tcpPort, udpPort;
+	private final InetSocketAddress								serverTCP, serverUDP;
+	private final InetAddress									loopback	= InetAddress.getLoopbackAddress();
+	private final Random										random		= new Random();
+	// Runs the delayed sends. One thread, so the TCP bytes stay in order.
+	private final ScheduledExecutorService						delayer;
+	// The socket talking to the server for each client - ClientAddress -> Socket
+	private final ConcurrentHashMap<SocketAddress, DatagramSocket>	sessions	= new ConcurrentHashMap<>();
+	private final AtomicLong									forwarded	= new AtomicLong();
+	private final AtomicLong									dropped		= new AtomicLong();
+	private volatile float										loss;
+	private volatile int										latency, jitter;
+	private volatile boolean									running;
+	private ServerSocket										tcp;
+	private DatagramSocket										udp;
+
+	/**
+	 * @param tcpPort
+	 *            Where the clients connect with TCP
+	 * @param udpPort
+	 *            Where the clients send UDP
+	 * @param serverTCP
+	 *            The TCP port of the server, on loopback
+	 * @param serverUDP
+	 *            The UDP port of the server, on loopback
+	 */
+	public LossyRelay(int tcpPort, int udpPort, int serverTCP, int serverUDP) {
+		this.tcpPort = tcpPort;
+		this.udpPort = udpPort;
+		this.serverTCP = new InetSocketAddress(loopback, serverTCP);
+		this.serverUDP = new InetSocketAddress(loopback, serverUDP);
+		delayer = Executors.newSingleThreadScheduledExecutor(daemon("Centurion-relay"));
+	}
+
+	/**
+	 * @param loss
+	 *            Part of the UDP packets dropped, from 0 to 1
+	 * @param latency
+	 *            Milliseconds added to each packet, each way
+	 * @param jitter
+	 *            Up to this many milliseconds more, random for each packet
+	 */
+	public void setConditions(float loss, int latency, int jitter) {
+		this.loss = loss;
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Opens the relay ports.
+	 */
+	public void start() throws IOException {
+		running = true;
+		tcp = new ServerSocket(tcpPort, 50, loopback);
+		udp = new DatagramSocket(udpPort, loopback);
+		daemon("Centurion-relay-tcp").newThread(new Runnable() {
+			@Override
+			public void run() {
+				acceptTCP();
+			}
+		}).start();
+		daemon("Centurion-relay-udp").newThread(new Runnable() {
+			@Override
+			public void run() {
+				relayUDP();
+			}
+		}).start();
+	}
+
+	/**
+	 * Closes everything.
+	 */
+	public void stop() {
+		running = false;
+		close(tcp);
+		if (udp != null)
+			udp.close();
+		for (DatagramSocket s : sessions.values())
+			s.close();
+		sessions.clear();
+		delayer.shutdownNow();
+	}
+
+	/**
+	 * @return How many UDP packets went through.
+	 */
+	public long getForwarded() {
+		return forwarded.get();
+	}
+
+	/**
+	 * @return How many UDP packets were dropped.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/*
+	 * TCP
+	 */
+
+	private void acceptTCP() {
+		while (running) {
+			try {
+				Socket client = tcp.accept();
+				Socket server = new Socket(serverTCP.getAddress(), serverTCP.getPort());
+				client.setTcpNoDelay(true);
+				server.setTcpNoDelay(true);
+				pipe(client, server);
+				pipe(server, client);
+			} catch (IOException e) {
+				if (running)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Copies the bytes from one socket to the other, late. Closes both when one closes.
+	 */
+	private void pipe(final Socket from, final Socket to) {
+		daemon("Centurion-relay-pipe").newThread(new Runnable() {
+			// Never before the last write, TCP doesn't reorder
+			private long	due;
+
+			@Override
+			public void run() {
+				byte[] buffer = new byte[8192];
+				try {
+					InputStream in = from.getInputStream();
+					final OutputStream out = to.getOutputStream();
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						final byte[] chunk = Arrays.copyOf(buffer, read);
+						due = Math.max(due, System.currentTimeMillis() + delay());
+						delayer.schedule(new Runnable() {
+							@Override
+							public void run() {
+								try {
+									out.write(chunk);
+									out.flush();
+								} catch (IOException e) {
+									close(to);
+								}
+							}
+						}, due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+					}
+				} catch (IOException e) {
+					// Closed
+				}
+				close(from);
+				close(to);
+			}
+		}).start();
+	}
+
+	/*
+	 * UDP
+	 */
+
+	private void relayUDP() {
+		byte[] buffer = new byte[65536];
+		while (running) {
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				udp.receive(packet);
+				DatagramSocket session = sessionOf(packet.getSocketAddress());
+				send(session, Arrays.copyOf(packet.getData(), packet.getLength()), serverUDP);
+			} catch (IOException e) {
+				if (running)
+					e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return The socket that talks to the server for a client, with a thread sending back what the server answers.
+	 */
+	private DatagramSocket sessionOf(final SocketAddress client) throws IOException {
+		DatagramSocket session = sessions.get(client);
+		if (session != null)
+			return session;
+		final DatagramSocket made = new DatagramSocket(0, loopback);
+		sessions.put(client, made);
+		daemon("Centurion-relay-session").newThread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[65536];
+				while (running && !made.isClosed()) {
+					try {
+						DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+						made.receive(packet);
+						send(udp, Arrays.copyOf(packet.getData(), packet.getLength()), client);
+					} catch (IOException e) {
+						// Closed
+					}
+				}
+			}
+		}).start();
+		return made;
+	}
+
+	/**
+	 * Sends a packet late, or drops it.
+	 */
+	private void send(final DatagramSocket socket, final byte[] data, final SocketAddress to) {
+		if (random.nextFloat() < loss) {
+			dropped.incrementAndGet();
+			return;
+		}
+		forwarded.incrementAndGet();
+		delayer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					socket.send(new DatagramPacket(data, data.length, to));
+				} catch (IOException e) {
+					// Closed
+				}
+			}
+		}, delay(), TimeUnit.MILLISECONDS);
+	}
+
+	private int delay() {
+		int j = jitter;
+		return latency + (j > 0 ? random.nextInt(j + 1) : 0);
+	}
+
+	private static void close(Closeable c) {
+		try {
+			if (c != null)
+				c.close();
+		} catch (IOException e) {
+			// Closing anyway
+		}
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}